@@ -0,0 +1,79 @@
+package plc.project;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The results of {@link Analyzer#analyze(Ast)}: the types, variables and
+ * functions the analyzer would otherwise set on the nodes of the tree. Nodes
+ * are looked up by identity, so the tree is left untouched and one parsed
+ * tree can be analyzed any number of times, against different scopes and on
+ * different threads, each with its own analyzer and its own analysis.
+ *
+ * An analysis cannot be changed once it is returned and is safe to share
+ * between threads: the analyzer fills in a working copy and returns a frozen
+ * one, whose results are all written before it is created. Nodes shared
+ * between parts of the tree, such as interned constant expressions, have one
+ * result, which is the same wherever they are.
+ */
+public final class Analysis {
+
+    private final Map<Ast, Object> results;
+
+    /** Creates an analysis over the results, which the analyzer fills in. */
+    Analysis(Map<Ast, Object> results) {
+        this.results = results;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+    /** Returns whether the node has a result, as {@code Ast.isAnalyzed}. */
+    public boolean contains(Ast ast) {
+        return results.containsKey(ast);
+    }
+
+    /** Returns the type of an expression, as {@link Ast.Expr#getType()}. */
+    public Environment.Type getType(Ast.Expr ast) {
+        if (ast instanceof Ast.Expr.Access) {
+            return getVariable(ast).getType();
+        } else if (ast instanceof Ast.Expr.Function) {
+            return getFunction(ast).getReturnType();
+        }
+        return (Environment.Type) get(ast, "type");
+    }
+
+    /** Returns the variable of a field, declaration or access. */
+    public Environment.Variable getVariable(Ast ast) {
+        return (Environment.Variable) get(ast, "variable");
+    }
+
+    /** Returns the function of a method or call. */
+    public Environment.Function getFunction(Ast ast) {
+        return (Environment.Function) get(ast, "function");
+    }
+
+    /** Records the result of a node, while the analyzer fills this in. */
+    void put(Ast ast, Object result) {
+        results.put(ast, result);
+    }
+
+    /**
+     * Returns an unmodifiable analysis of the results recorded so far. They
+     * are published through its final field, so any thread that sees it sees
+     * them, as long as nothing is recorded here afterwards.
+     */
+    Analysis freeze() {
+        return new Analysis(Collections.unmodifiableMap(results));
+    }
+
+    private Object get(Ast ast, String name) {
+        Object result = results.get(ast);
+        if (result == null) {
+            throw new IllegalStateException(name + " is uninitialized");
+        }
+        return result;
+    }
+
+}
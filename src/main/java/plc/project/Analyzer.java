@@ -6,8 +6,21 @@ package plc.project;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -16,15 +29,51 @@ import java.util.stream.Collectors;
  */
 public final class Analyzer implements Ast.Visitor<Void> {
 
+    /** The most method bodies analyzed by one task of {@link #analyze(Ast.Source, ForkJoinPool)}. */
+    private static final int PARALLEL_THRESHOLD = 64;
+
+    /** The most declarations waiting between the parser and analyzer of a pipeline. */
+    private static final int PIPELINE_CAPACITY = 256;
+
+    /** Marks the end of the declarations in a pipeline. */
+    private static final Ast END = new Ast.Source(Collections.emptyList(), Collections.emptyList());
+
     Scope scope;
     private Environment.Type returnType;
 
+    /** Where results are recorded instead of the tree, while analyzing with {@link #analyze(Ast)}. */
+    private Analysis analysis;
+
+    /**
+     * The names of variables and {@code name/arity} of functions looked up
+     * without a receiver, while analyzing a body that records them.
+     */
+    private Set<String> dependencies;
+
+    private final ExpressionWalker expressions = new ExpressionWalker();
+
+    /**
+     * The blocks of statements being analyzed, innermost last. A statement
+     * with a body pushes it here rather than visiting it, so statements nested
+     * to any depth are analyzed without recursion, by {@link #analyzeBlocks()}.
+     */
+    private final List<Block> blocks = new ArrayList<>();
+    private boolean analyzingBlocks = false;
+
     /**
      * Constructor initializes the analyzer with a parent scope.
      * Defines built-in functions for the language, such as the "print" function.
      */
     public Analyzer(Scope parent) {
-        this.scope = new Scope(parent);
+        this(parent, parent != null ? parent.getSymbols() : null);
+    }
+
+    /**
+     * Constructor for an AST parsed with the given symbol table, so accesses and
+     * calls are looked up by symbol.
+     */
+    public Analyzer(Scope parent, SymbolTable symbols) {
+        this.scope = new Scope(parent, symbols);
 
         // Define built-in print function, which expects a parameter of any type and returns NIL.
         this.scope.defineFunction(
@@ -36,11 +85,112 @@ public final class Analyzer implements Ast.Visitor<Void> {
         );
     }
 
+    private Analyzer() {}
+
+    /**
+     * Returns an analyzer for the bodies of methods whose signatures are
+     * defined in the scope, which already has the builtins.
+     */
+    static Analyzer forBodies(Scope scope) {
+        Analyzer analyzer = new Analyzer();
+        analyzer.scope = scope;
+        return analyzer;
+    }
+
     /**
      * Visit the root of the AST, analyzing fields and methods, and ensuring there is a main method.
      */
     @Override
     public Void visit(Ast.Source ast) {
+        requireMain(ast);
+
+        // Visit each field and method in the source
+        for (Ast.Field field : ast.getFields()) {
+            visit(field);
+        }
+        for (Ast.Method method : ast.getMethods()) {
+            visit(method);
+        }
+        return null;
+    }
+
+    /**
+     * Analyzes a source in two phases, checking method bodies in parallel.
+     * The calling thread analyzes the fields and defines the signatures of all
+     * methods, then the bodies are checked on the pool, each in its own child
+     * of this analyzer's scope, which is only read from then on. Unlike
+     * {@link #visit(Ast.Source)}, a method may call any method of the source,
+     * including those after it.
+     *
+     * Errors are a missing main method or one not returning Integer, then the
+     * first error in a field or method signature, then the first error in a
+     * method body, in source order.
+     */
+    public void analyze(Ast.Source ast, ForkJoinPool pool) {
+        requireMain(ast);
+        for (Ast.Field field : ast.getFields()) {
+            visit(field);
+        }
+        List<Ast.Method> methods = ast.getMethods();
+        Environment.Function[] functions = new Environment.Function[methods.size()];
+        for (int i = 0; i < functions.length; i++) {
+            functions[i] = define(methods.get(i));
+        }
+        RuntimeException[] errors = new RuntimeException[functions.length];
+        pool.invoke(new BodyTask(methods, functions, errors, 0, functions.length));
+        for (RuntimeException error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Checks the bodies of a range of methods, splitting it in half while it
+     * is larger than {@link #PARALLEL_THRESHOLD}. Each method gets a new
+     * analyzer, so tasks share nothing but the scope and symbol table they
+     * read: a body's scopes never intern into the table.
+     */
+    private final class BodyTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Ast.Method> methods;
+        private final Environment.Function[] functions;
+        private final RuntimeException[] errors;
+        private final int start;
+        private final int end;
+
+        private BodyTask(List<Ast.Method> methods, Environment.Function[] functions, RuntimeException[] errors, int start, int end) {
+            this.methods = methods;
+            this.functions = functions;
+            this.errors = errors;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > PARALLEL_THRESHOLD) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new BodyTask(methods, functions, errors, start, middle),
+                        new BodyTask(methods, functions, errors, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                try {
+                    forBodies(Scope.concurrentChild(scope)).analyzeBody(methods.get(i), functions[i]);
+                } catch (RuntimeException e) {
+                    errors[i] = e;
+                    return;
+                }
+            }
+        }
+
+    }
+
+    /** Requires a main method without parameters, returning Integer. */
+    static void requireMain(Ast.Source ast) {
         // Verify presence of "main" method
         boolean hasMain = ast.getMethods().stream().anyMatch(method ->
                 method.getName().equals("main") && method.getParameters().isEmpty()
@@ -55,15 +205,150 @@ public final class Analyzer implements Ast.Visitor<Void> {
                 throw new RuntimeException("Main method must return Integer.");
             }
         }
+    }
 
-        // Visit each field and method in the source
-        for (Ast.Field field : ast.getFields()) {
-            visit(field);
+    /**
+     * Analyzes an AST like {@link #visit(Ast)}, but records the results in the
+     * returned {@link Analysis} instead of setting them on the nodes, which
+     * are left unchanged. Errors are the same as visiting it.
+     */
+    public Analysis analyze(Ast ast) {
+        Analysis analysis = new Analysis(new IdentityHashMap<>());
+        this.analysis = analysis;
+        try {
+            visit(ast);
+        } finally {
+            this.analysis = null;
         }
-        for (Ast.Method method : ast.getMethods()) {
-            visit(method);
+        return analysis.freeze();
+    }
+
+    /**
+     * Parses and analyzes a source as a pipeline. The calling thread parses,
+     * handing each field and method over a bounded queue to this analyzer,
+     * which runs on the executor and analyzes each one as soon as it arrives.
+     * The executor must run the analysis on another thread: one that runs it
+     * right away on the calling thread is rejected with an
+     * {@link IllegalArgumentException}, and one that never runs it leaves the
+     * parser blocked once the queue is full.
+     *
+     * Errors are the same as parsing the source and then visiting it: a syntax
+     * error first, then a missing main method or one not returning Integer,
+     * then the first analysis error. Declarations after an analysis error are
+     * only checked for the main method. Unlike {@link #visit(Ast.Source)},
+     * declarations that arrive before the main method is known to be missing
+     * are already analyzed.
+     */
+    public Ast.Source analyze(Parser parser, Executor executor) {
+        BlockingQueue<Ast> queue = new ArrayBlockingQueue<>(PIPELINE_CAPACITY);
+        Thread caller = Thread.currentThread();
+        FutureTask<Void> analysis = new FutureTask<>(() -> {
+            if (Thread.currentThread() == caller) {
+                throw new IllegalArgumentException("The executor must run the analysis on another thread.");
+            }
+            try {
+                analyze(queue);
+            } catch (Error e) {
+                // Keep taking declarations, so the parser never blocks on a full queue.
+                drain(queue);
+                throw e;
+            }
+            return null;
+        });
+        executor.execute(analysis);
+        if (analysis.isDone()) {
+            await(analysis);
+        }
+
+        List<Ast.Field> fields = new ArrayList<>();
+        List<Ast.Method> methods = new ArrayList<>();
+        try {
+            parser.parseSource(declaration -> {
+                if (declaration instanceof Ast.Field) {
+                    fields.add((Ast.Field) declaration);
+                } else {
+                    methods.add((Ast.Method) declaration);
+                }
+                put(queue, declaration);
+            });
+            put(queue, END);
+        } catch (RuntimeException e) {
+            analysis.cancel(true);
+            throw e;
+        }
+        await(analysis);
+        return new Ast.Source(fields, methods);
+    }
+
+    /** Analyzes the declarations of a pipeline up to {@link #END}. */
+    private void analyze(BlockingQueue<Ast> queue) throws InterruptedException {
+        boolean hasMain = false;
+        boolean integerMain = true;
+        RuntimeException error = null;
+        for (Ast declaration = queue.take(); declaration != END; declaration = queue.take()) {
+            if (declaration instanceof Ast.Method) {
+                Ast.Method method = (Ast.Method) declaration;
+                if (method.getName().equals("main")) {
+                    hasMain |= method.getParameters().isEmpty();
+                    integerMain &= method.getReturnTypeName().orElse("Integer").equals("Integer");
+                }
+            }
+            if (error == null && integerMain) {
+                try {
+                    visit(declaration);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+        }
+        if (!hasMain) {
+            throw new RuntimeException("No main method found.");
+        } else if (!integerMain) {
+            throw new RuntimeException("Main method must return Integer.");
+        } else if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Queues a declaration, waiting while the queue is full. The analysis
+     * takes every declaration up to {@link #END} unless it is cancelled.
+     */
+    private static void put(BlockingQueue<Ast> queue, Ast declaration) {
+        try {
+            queue.put(declaration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Takes the remaining declarations of a pipeline, up to {@link #END}. */
+    private static void drain(BlockingQueue<Ast> queue) {
+        try {
+            while (queue.take() != END) {
+                // Discarded, as the analysis has failed.
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Waits for the analysis, rethrowing what it threw. */
+    private static void await(Future<Void> analysis) {
+        try {
+            analysis.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
-        return null;
     }
 
     /**
@@ -72,12 +357,12 @@ public final class Analyzer implements Ast.Visitor<Void> {
     @Override
     public Void visit(Ast.Field ast) {
         Environment.Type fieldType = Environment.getType(ast.getTypeName());
-        ast.setVariable(new Environment.Variable(ast.getName(), ast.getName(), fieldType, Environment.NIL));
+        record(ast, new Environment.Variable(ast.getName(), ast.getName(), fieldType, Environment.NIL), ast::setVariable);
 
         // If the field has a value, check type compatibility
         if (ast.getValue().isPresent()) {
             visit(ast.getValue().get());
-            Environment.Type valueType = ast.getValue().get().getType();
+            Environment.Type valueType = typeOf(ast.getValue().get());
             requireAssignable(fieldType, valueType);
         }
 
@@ -91,6 +376,12 @@ public final class Analyzer implements Ast.Visitor<Void> {
      */
     @Override
     public Void visit(Ast.Method ast) {
+        analyzeBody(ast, define(ast));
+        return null;
+    }
+
+    /** Defines the function of a method in the current scope, from its signature. */
+    Environment.Function define(Ast.Method ast) {
         // Collect parameter types
         List<Environment.Type> paramTypes = ast.getParameterTypeNames().stream()
                 .map(Environment::getType)
@@ -98,32 +389,90 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
         // Determine return type, defaulting to "Nil" if unspecified
         Environment.Type returnType = Environment.getType(ast.getReturnTypeName().orElse("Nil"));
-        ast.setFunction(new Environment.Function(
+        record(ast, new Environment.Function(
                 ast.getName(), ast.getName(), paramTypes, returnType, args -> Environment.NIL
-        ));
+        ), ast::setFunction);
 
         // Define the function within the scope
-        scope.defineFunction(ast.getName(), ast.getName(), paramTypes, returnType, args -> Environment.NIL);
+        return scope.defineFunction(ast.getName(), ast.getName(), paramTypes, returnType, args -> Environment.NIL);
+    }
+
+    /**
+     * Analyzes the body of a method whose function has been defined, adding
+     * what it looks up without a receiver to the dependencies: the names of
+     * variables and the {@code name/arity} of functions. Local names are
+     * included, so the dependencies are a superset of those on the scope.
+     */
+    void analyzeBody(Ast.Method ast, Environment.Function function, Set<String> dependencies) {
+        this.dependencies = dependencies;
+        try {
+            analyzeBody(ast, function);
+        } finally {
+            this.dependencies = null;
+        }
+    }
+
+    /** Analyzes the body of a method whose function has been defined. */
+    private void analyzeBody(Ast.Method ast, Environment.Function function) {
+        List<Environment.Type> paramTypes = function.getParameterTypes();
 
         // Create a new scope for the method body
-        Scope previousScope = this.scope;
-        this.scope = new Scope(scope);
-        this.returnType = returnType;
+        Scope methodScope = new Scope(scope);
+        this.returnType = function.getReturnType();
 
         // Define parameters in the method's scope
         for (int i = 0; i < ast.getParameters().size(); i++) {
             String paramName = ast.getParameters().get(i);
-            this.scope.defineVariable(paramName, paramName, paramTypes.get(i), Environment.NIL);
+            methodScope.defineVariable(paramName, paramName, paramTypes.get(i), Environment.NIL);
+        }
+
+        // Analyze each statement in the method, restoring the previous scope after
+        blocks.add(new Block(ast.getStatements(), methodScope, scope));
+        analyzeBlocks();
+    }
+
+    /**
+     * Analyzes the statements of the blocks pushed, innermost block first,
+     * unless this is already being done further up, which continues with them.
+     * Each block is analyzed in its scope, and the scope it was pushed in is
+     * current again once it is done.
+     */
+    private void analyzeBlocks() {
+        if (analyzingBlocks) {
+            return;
         }
+        analyzingBlocks = true;
+        try {
+            while (!blocks.isEmpty()) {
+                Block block = blocks.get(blocks.size() - 1);
+                if (block.next == block.statements.size()) {
+                    blocks.remove(blocks.size() - 1);
+                    this.scope = block.previous;
+                } else {
+                    this.scope = block.scope;
+                    visit(block.statements.get(block.next++));
+                }
+            }
+        } finally {
+            blocks.clear();
+            analyzingBlocks = false;
+        }
+    }
+
+    /** Statements to analyze in a scope, and the scope to restore after them. */
+    private static final class Block {
 
-        // Analyze each statement in the method
-        for (Ast.Stmt stmt : ast.getStatements()) {
-            visit(stmt);
+        private final List<Ast.Stmt> statements;
+        private final Scope scope;
+        private final Scope previous;
+        private int next = 0;
+
+        private Block(List<Ast.Stmt> statements, Scope scope, Scope previous) {
+            this.statements = statements;
+            this.scope = scope;
+            this.previous = previous;
         }
 
-        // Restore the previous scope after method analysis
-        this.scope = previousScope;
-        return null;
     }
 
     /**
@@ -149,18 +498,18 @@ public final class Analyzer implements Ast.Visitor<Void> {
         } else {
             if (ast.getValue().isPresent()) {
                 visit(ast.getValue().get());
-                type = ast.getValue().get().getType();
+                type = typeOf(ast.getValue().get());
             } else {
                 throw new RuntimeException("Declaration must have a type or an initializer.");
             }
         }
 
-        ast.setVariable(new Environment.Variable(ast.getName(), ast.getName(), type, Environment.NIL));
+        record(ast, new Environment.Variable(ast.getName(), ast.getName(), type, Environment.NIL), ast::setVariable);
 
         // Validate initializer's compatibility with declared type
         if (ast.getValue().isPresent()) {
             visit(ast.getValue().get());
-            Environment.Type valueType = ast.getValue().get().getType();
+            Environment.Type valueType = typeOf(ast.getValue().get());
             requireAssignable(type, valueType);
         }
 
@@ -178,9 +527,9 @@ public final class Analyzer implements Ast.Visitor<Void> {
             throw new RuntimeException("Receiver must be an access expression.");
         }
         visit(ast.getReceiver());
-        Environment.Type receiverType = ast.getReceiver().getType();
+        Environment.Type receiverType = typeOf(ast.getReceiver());
         visit(ast.getValue());
-        Environment.Type valueType = ast.getValue().getType();
+        Environment.Type valueType = typeOf(ast.getValue());
         requireAssignable(receiverType, valueType);
         return null;
     }
@@ -191,7 +540,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
     @Override
     public Void visit(Ast.Stmt.If ast) {
         visit(ast.getCondition());
-        Environment.Type conditionType = ast.getCondition().getType();
+        Environment.Type conditionType = typeOf(ast.getCondition());
         if (!conditionType.equals(Environment.Type.BOOLEAN)) {
             throw new RuntimeException("Condition must be a boolean expression.");
         }
@@ -199,21 +548,12 @@ public final class Analyzer implements Ast.Visitor<Void> {
             throw new RuntimeException("Then branch cannot be empty.");
         }
 
-        // Analyze "then" and "else" branches within new scopes
-        Scope previousScope = this.scope;
-        this.scope = new Scope(scope);
-        for (Ast.Stmt stmt : ast.getThenStatements()) {
-            visit(stmt);
-        }
-        this.scope = previousScope;
-
+        // Analyze "then" and "else" branches within new scopes, the last block pushed first
         if (!ast.getElseStatements().isEmpty()) {
-            this.scope = new Scope(scope);
-            for (Ast.Stmt stmt : ast.getElseStatements()) {
-                visit(stmt);
-            }
-            this.scope = previousScope;
+            blocks.add(new Block(ast.getElseStatements(), new Scope(scope), scope));
         }
+        blocks.add(new Block(ast.getThenStatements(), new Scope(scope), scope));
+        analyzeBlocks();
         return null;
     }
 
@@ -223,7 +563,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
     @Override
     public Void visit(Ast.Stmt.For ast) {
         visit(ast.getValue());
-        Environment.Type valueType = ast.getValue().getType();
+        Environment.Type valueType = typeOf(ast.getValue());
         if (!valueType.equals(Environment.Type.INTEGER_ITERABLE)) {
             throw new RuntimeException("Value must be of type IntegerIterable.");
         }
@@ -231,14 +571,10 @@ public final class Analyzer implements Ast.Visitor<Void> {
             throw new RuntimeException("For loop statements cannot be empty.");
         }
 
-        Scope previousScope = this.scope;
-        this.scope = new Scope(scope);
-        this.scope.defineVariable(ast.getName(), ast.getName(), Environment.Type.INTEGER, Environment.NIL);
-
-        for (Ast.Stmt stmt : ast.getStatements()) {
-            visit(stmt);
-        }
-        this.scope = previousScope;
+        Scope loopScope = new Scope(scope);
+        loopScope.defineVariable(ast.getName(), ast.getName(), Environment.Type.INTEGER, Environment.NIL);
+        blocks.add(new Block(ast.getStatements(), loopScope, scope));
+        analyzeBlocks();
         return null;
     }
 
@@ -248,17 +584,13 @@ public final class Analyzer implements Ast.Visitor<Void> {
     @Override
     public Void visit(Ast.Stmt.While ast) {
         visit(ast.getCondition());
-        Environment.Type conditionType = ast.getCondition().getType();
+        Environment.Type conditionType = typeOf(ast.getCondition());
         if (!conditionType.equals(Environment.Type.BOOLEAN)) {
             throw new RuntimeException("Condition must be a boolean expression.");
         }
 
-        Scope previousScope = this.scope;
-        this.scope = new Scope(scope);
-        for (Ast.Stmt stmt : ast.getStatements()) {
-            visit(stmt);
-        }
-        this.scope = previousScope;
+        blocks.add(new Block(ast.getStatements(), new Scope(scope), scope));
+        analyzeBlocks();
         return null;
     }
 
@@ -268,7 +600,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
     @Override
     public Void visit(Ast.Stmt.Return ast) {
         visit(ast.getValue());
-        Environment.Type returnValueType = ast.getValue().getType();
+        Environment.Type returnValueType = typeOf(ast.getValue());
         requireAssignable(this.returnType, returnValueType);
         return null;
     }
@@ -280,29 +612,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
      */
     @Override
     public Void visit(Ast.Expr.Literal ast) {
-        Object value = ast.getLiteral();
-        Environment.Type type;
-        if (value instanceof Boolean) {
-            type = Environment.Type.BOOLEAN;
-        } else if (value instanceof Character) {
-            type = Environment.Type.CHARACTER;
-        } else if (value instanceof String) {
-            type = Environment.Type.STRING;
-        } else if (value instanceof BigInteger) {
-            BigInteger intValue = (BigInteger) value;
-            if (intValue.compareTo(BigInteger.valueOf(Integer.MIN_VALUE)) < 0 ||
-                    intValue.compareTo(BigInteger.valueOf(Integer.MAX_VALUE)) > 0) {
-                throw new RuntimeException("Integer literal out of bounds.");
-            }
-            type = Environment.Type.INTEGER;
-        } else if (value instanceof BigDecimal) {
-            type = Environment.Type.DECIMAL;
-        } else if (value == null) {
-            type = Environment.Type.NIL;
-        } else {
-            throw new RuntimeException("Unknown literal type.");
-        }
-        ast.setType(type);
+        expressions.analyze(ast);
         return null;
     }
 
@@ -311,11 +621,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
      */
     @Override
     public Void visit(Ast.Expr.Group ast) {
-        if (!(ast.getExpression() instanceof Ast.Expr.Binary)) {
-            throw new RuntimeException("Grouped expression must be a binary expression.");
-        }
-        visit(ast.getExpression());
-        ast.setType(ast.getExpression().getType());
+        expressions.analyze(ast);
         return null;
     }
 
@@ -324,44 +630,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
      */
     @Override
     public Void visit(Ast.Expr.Binary ast) {
-        visit(ast.getLeft());
-        visit(ast.getRight());
-        Environment.Type leftType = ast.getLeft().getType();
-        Environment.Type rightType = ast.getRight().getType();
-
-        Environment.Type resultType;
-        String operator = ast.getOperator();
-
-        if (operator.equals("AND") || operator.equals("OR")) {
-            if (!leftType.equals(Environment.Type.BOOLEAN) || !rightType.equals(Environment.Type.BOOLEAN)) {
-                throw new RuntimeException("Both operands of AND/OR must be Boolean.");
-            }
-            resultType = Environment.Type.BOOLEAN;
-        } else if (Arrays.asList("<", "<=", ">", ">=", "==", "!=").contains(operator)) {
-            if (!leftType.equals(rightType) || !isComparable(leftType)) {
-                throw new RuntimeException("Operands must be of the same Comparable type.");
-            }
-            resultType = Environment.Type.BOOLEAN;
-        } else if (operator.equals("+")) {
-            if (leftType.equals(Environment.Type.STRING) || rightType.equals(Environment.Type.STRING)) {
-                resultType = Environment.Type.STRING;
-            } else if (leftType.equals(Environment.Type.INTEGER) && rightType.equals(Environment.Type.INTEGER)) {
-                resultType = Environment.Type.INTEGER;
-            } else if (leftType.equals(Environment.Type.DECIMAL) && rightType.equals(Environment.Type.DECIMAL)) {
-                resultType = Environment.Type.DECIMAL;
-            } else {
-                throw new RuntimeException("Invalid operand types for + operator.");
-            }
-        } else if (Arrays.asList("-", "*", "/").contains(operator)) {
-            if (!leftType.equals(rightType) ||
-                    (!leftType.equals(Environment.Type.INTEGER) && !leftType.equals(Environment.Type.DECIMAL))) {
-                throw new RuntimeException("Operands must be Integer or Decimal and of the same type.");
-            }
-            resultType = leftType;
-        } else {
-            throw new RuntimeException("Unsupported binary operator: " + operator);
-        }
-        ast.setType(resultType);
+        expressions.analyze(ast);
         return null;
     }
 
@@ -370,15 +639,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
      */
     @Override
     public Void visit(Ast.Expr.Access ast) {
-        if (ast.getReceiver().isPresent()) {
-            visit(ast.getReceiver().get());
-            Environment.Type receiverType = ast.getReceiver().get().getType();
-            Environment.Variable variable = receiverType.getField(ast.getName());
-            ast.setVariable(variable);
-        } else {
-            Environment.Variable variable = scope.lookupVariable(ast.getName());
-            ast.setVariable(variable);
-        }
+        expressions.analyze(ast);
         return null;
     }
 
@@ -387,60 +648,240 @@ public final class Analyzer implements Ast.Visitor<Void> {
      */
     @Override
     public Void visit(Ast.Expr.Function ast) {
-        if (ast.getReceiver().isPresent()) {
-            visit(ast.getReceiver().get());
-            Environment.Type receiverType = ast.getReceiver().get().getType();
-            Environment.Function function = receiverType.getMethod(ast.getName(), ast.getArguments().size());
-            ast.setFunction(function);
+        expressions.analyze(ast);
+        return null;
+    }
+
+    /**
+     * Analyzes expressions with an {@link AstWalker}, so nesting of any depth
+     * is analyzed without recursion. Errors are found in the same order as by
+     * a recursive analysis: each expression is analyzed after its operands,
+     * except for the checks that need nothing from them, which are made
+     * first, and a call looks up a method right after its receiver and checks
+     * each argument right after it is analyzed.
+     */
+    private final class ExpressionWalker extends AstWalker {
+
+        /** The calls being walked, innermost last. */
+        private final List<Call> calls = new ArrayList<>();
+
+        /** Analyzes the expression, forgetting its calls if it has an error. */
+        private void analyze(Ast.Expr ast) {
+            int base = calls.size();
+            try {
+                walk(ast);
+            } finally {
+                calls.subList(base, calls.size()).clear();
+            }
+        }
+
+        @Override
+        protected boolean enter(Ast ast) {
+            if (ast instanceof Ast.Expr.Group && !(((Ast.Expr.Group) ast).getExpression() instanceof Ast.Expr.Binary)) {
+                throw new RuntimeException("Grouped expression must be a binary expression.");
+            } else if (ast instanceof Ast.Expr.Function) {
+                Ast.Expr.Function function = (Ast.Expr.Function) ast;
+                Environment.Function lookedUp = null;
+                if (!function.getReceiver().isPresent()) {
+                    if (dependencies != null) {
+                        dependencies.add(function.getName() + "/" + function.getArguments().size());
+                    }
+                    lookedUp = hasSymbol(function.getSymbol(), function.getName())
+                            ? scope.lookupFunction(function.getSymbol(), function.getArguments().size())
+                            : scope.lookupFunction(function.getName(), function.getArguments().size());
+                    record(function, lookedUp, function::setFunction);
+                }
+                calls.add(new Call(function, lookedUp));
+            }
+            return true;
+        }
+
+        @Override
+        protected void exit(Ast ast) {
+            if (ast instanceof Ast.Expr.Literal) {
+                analyzeLiteral((Ast.Expr.Literal) ast);
+            } else if (ast instanceof Ast.Expr.Group) {
+                Ast.Expr.Group group = (Ast.Expr.Group) ast;
+                record(group, typeOf(group.getExpression()), group::setType);
+            } else if (ast instanceof Ast.Expr.Binary) {
+                analyzeBinary((Ast.Expr.Binary) ast);
+            } else if (ast instanceof Ast.Expr.Access) {
+                analyzeAccess((Ast.Expr.Access) ast);
+            } else if (ast instanceof Ast.Expr.Function) {
+                calls.remove(calls.size() - 1);
+            }
+            if (!calls.isEmpty()) {
+                analyzeOperand(calls.get(calls.size() - 1), (Ast.Expr) ast);
+            }
+        }
+
+        /**
+         * Looks up the method of a call once its receiver is analyzed, and
+         * checks each argument once it is. Other expressions inside the call
+         * are never its next operand, as a node is not inside itself.
+         */
+        private void analyzeOperand(Call call, Ast.Expr operand) {
+            Ast.Expr.Function ast = call.ast;
+            if (call.function == null) {
+                if (operand == ast.getReceiver().get()) {
+                    Environment.Type receiverType = typeOf(operand);
+                    call.function = receiverType.getMethod(ast.getName(), ast.getArguments().size());
+                    record(ast, call.function, ast::setFunction);
+                }
+            } else if (call.next < ast.getArguments().size() && operand == ast.getArguments().get(call.next)) {
+                requireAssignable(call.function.getParameterTypes().get(call.next), typeOf(operand));
+                call.next++;
+            }
+        }
+
+    }
+
+    /** A call being walked, with its function once known and its next argument to check. */
+    private static final class Call {
+
+        private final Ast.Expr.Function ast;
+        private Environment.Function function;
+        private int next = 0;
+
+        private Call(Ast.Expr.Function ast, Environment.Function function) {
+            this.ast = ast;
+            this.function = function;
+        }
+
+    }
+
+    private void analyzeLiteral(Ast.Expr.Literal ast) {
+        Object value = ast.getLiteral();
+        Environment.Type type;
+        if (value instanceof Boolean) {
+            type = Environment.Type.BOOLEAN;
+        } else if (value instanceof Character) {
+            type = Environment.Type.CHARACTER;
+        } else if (value instanceof String) {
+            type = Environment.Type.STRING;
+        } else if (value instanceof BigInteger) {
+            // Exactly the values in [Integer.MIN_VALUE, Integer.MAX_VALUE] need at most 31 bits.
+            if (((BigInteger) value).bitLength() > 31) {
+                throw new RuntimeException("Integer literal out of bounds.");
+            }
+            type = Environment.Type.INTEGER;
+        } else if (value instanceof BigDecimal) {
+            type = Environment.Type.DECIMAL;
+        } else if (value == null) {
+            type = Environment.Type.NIL;
         } else {
-            Environment.Function function = scope.lookupFunction(ast.getName(), ast.getArguments().size());
-            ast.setFunction(function);
+            throw new RuntimeException("Unknown literal type.");
         }
-        for (int i = 0; i < ast.getArguments().size(); i++) {
-            visit(ast.getArguments().get(i));
-            requireAssignable(ast.getFunction().getParameterTypes().get(i), ast.getArguments().get(i).getType());
+        record(ast, type, ast::setType);
+    }
+
+    private void analyzeBinary(Ast.Expr.Binary ast) {
+        Environment.Type leftType = typeOf(ast.getLeft());
+        Environment.Type rightType = typeOf(ast.getRight());
+
+        Environment.Type resultType;
+        String operator = ast.getOperator();
+
+        switch (operator) {
+            case "AND":
+            case "OR":
+                if (!leftType.equals(Environment.Type.BOOLEAN) || !rightType.equals(Environment.Type.BOOLEAN)) {
+                    throw new RuntimeException("Both operands of AND/OR must be Boolean.");
+                }
+                resultType = Environment.Type.BOOLEAN;
+                break;
+            case "<":
+            case "<=":
+            case ">":
+            case ">=":
+            case "==":
+            case "!=":
+                if (!leftType.equals(rightType) || !Environment.isComparable(leftType)) {
+                    throw new RuntimeException("Operands must be of the same Comparable type.");
+                }
+                resultType = Environment.Type.BOOLEAN;
+                break;
+            case "+":
+                if (leftType.equals(Environment.Type.STRING) || rightType.equals(Environment.Type.STRING)) {
+                    resultType = Environment.Type.STRING;
+                } else if (leftType.equals(Environment.Type.INTEGER) && rightType.equals(Environment.Type.INTEGER)) {
+                    resultType = Environment.Type.INTEGER;
+                } else if (leftType.equals(Environment.Type.DECIMAL) && rightType.equals(Environment.Type.DECIMAL)) {
+                    resultType = Environment.Type.DECIMAL;
+                } else {
+                    throw new RuntimeException("Invalid operand types for + operator.");
+                }
+                break;
+            case "-":
+            case "*":
+            case "/":
+                if (!leftType.equals(rightType) ||
+                        (!leftType.equals(Environment.Type.INTEGER) && !leftType.equals(Environment.Type.DECIMAL))) {
+                    throw new RuntimeException("Operands must be Integer or Decimal and of the same type.");
+                }
+                resultType = leftType;
+                break;
+            default:
+                throw new RuntimeException("Unsupported binary operator: " + operator);
+        }
+        record(ast, resultType, ast::setType);
+    }
+
+    private void analyzeAccess(Ast.Expr.Access ast) {
+        if (ast.getReceiver().isPresent()) {
+            Environment.Type receiverType = typeOf(ast.getReceiver().get());
+            Environment.Variable variable = receiverType.getField(ast.getName());
+            record(ast, variable, ast::setVariable);
+        } else {
+            if (dependencies != null) {
+                dependencies.add(ast.getName());
+            }
+            Environment.Variable variable = hasSymbol(ast.getSymbol(), ast.getName())
+                    ? scope.lookupVariable(ast.getSymbol())
+                    : scope.lookupVariable(ast.getName());
+            record(ast, variable, ast::setVariable);
         }
-        return null;
     }
 
     // Helper Methods
 
     /**
-     * Requires that the target type can be assigned the provided type, throwing an error if not.
+     * Records a node's result in the current analysis, or sets it on the node
+     * when not analyzing with {@link #analyze(Ast)}.
      */
-    public static void requireAssignable(Environment.Type target, Environment.Type type) {
-        if (!isAssignableTo(target, type)) {
-            throw new RuntimeException("Cannot assign " + type.getName() + " to " + target.getName());
+    private <T> void record(Ast ast, T result, Consumer<T> setter) {
+        if (analysis != null) {
+            analysis.put(ast, result);
+        } else {
+            setter.accept(result);
         }
     }
 
+    /** Returns the type of an analyzed expression, from wherever it was recorded. */
+    private Environment.Type typeOf(Ast.Expr ast) {
+        return analysis != null ? analysis.getType(ast) : ast.getType();
+    }
+
     /**
-     * Determines if the source type can be assigned to the target type.
+     * Returns true if a node's symbol can be looked up directly: the scope has
+     * a table and the symbol names the node's name in it, as when the AST was
+     * parsed with the same table. Otherwise the name is looked up.
      */
-    private static boolean isAssignableTo(Environment.Type target, Environment.Type type) {
-        if (target.equals(Environment.Type.COMPARABLE)) {
-            return Arrays.asList(
-                    Environment.Type.INTEGER,
-                    Environment.Type.DECIMAL,
-                    Environment.Type.CHARACTER,
-                    Environment.Type.STRING
-            ).contains(type);
-        } else if (target.equals(Environment.Type.ANY)) {
-            return true;
-        } else {
-            return target.equals(type);
+    private boolean hasSymbol(int symbol, String name) {
+        SymbolTable symbols = scope.getSymbols();
+        if (symbol < 0 || symbols == null || symbol >= symbols.size()) {
+            return false;
         }
+        String interned = symbols.getName(symbol);
+        return interned == name || interned.equals(name);
     }
 
     /**
-     * Helper method to determine if a type is comparable.
+     * Requires that the target type can be assigned the provided type, throwing an error if not.
      */
-    private boolean isComparable(Environment.Type type) {
-        return Arrays.asList(
-                Environment.Type.INTEGER,
-                Environment.Type.DECIMAL,
-                Environment.Type.CHARACTER,
-                Environment.Type.STRING
-        ).contains(type);
+    public static void requireAssignable(Environment.Type target, Environment.Type type) {
+        if (!Environment.isAssignable(target, type)) {
+            throw new RuntimeException("Cannot assign " + type.getName() + " to " + target.getName());
+        }
     }
 }
@@ -1,9 +1,10 @@
 package plc.project;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 /**
  * See the Parser assignment specification for specific notes on each AST class
@@ -11,14 +12,82 @@ import java.util.Optional;
  */
 public abstract class Ast {
 
+    /** Hashes the nodes of a tree for {@link #hashCode()}, one per thread. */
+    private static final ThreadLocal<HashWalker> HASH_WALKER = ThreadLocal.withInitial(HashWalker::new);
+
+    /** The structural hash, or {@code 0} if it has not been computed yet. */
+    private int hash;
+
+    /** Calls the {@code visit} method of the visitor for this node's class. */
+    public abstract <T> T accept(Visitor<T> visitor);
+
+    /**
+     * Returns a hash of the node's structure, combining its kind, names and
+     * literals with the hashes of its children. It is computed once, the
+     * first time it is needed, so a subtree is hashed only once and later
+     * calls and {@code equals} on nodes with different hashes take constant
+     * time. The children still unhashed are hashed first, with an
+     * {@link AstWalker}, so a tree of any depth can be hashed.
+     *
+     * Analysis results, such as types and variables, are left out, so the
+     * hash does not change when the tree is analyzed, and it is the same from
+     * one run to the next. The statements of a method are included, so a
+     * deferred body is parsed when the method is first hashed, and the hash is
+     * the same as the method parsed eagerly. Children cannot change: the lists
+     * of a node are unmodifiable, and those passed to its constructor belong
+     * to it.
+     */
+    @Override
+    public final int hashCode() {
+        int hash = this.hash;
+        if (hash == 0) {
+            HASH_WALKER.get().walk(this);
+            hash = this.hash;
+        }
+        return hash;
+    }
+
+    /** Returns the hash of the node, whose children have all been hashed. */
+    abstract int computeHash();
+
+    /** Hashes the unhashed nodes of a tree, children before their parents. */
+    private static final class HashWalker extends AstWalker {
+
+        @Override
+        protected boolean enter(Ast ast) {
+            return ast.hash == 0;
+        }
+
+        @Override
+        protected void exit(Ast ast) {
+            if (ast.hash == 0) {
+                ast.hash = ast.computeHash();
+            }
+        }
+
+    }
+
+    /** Returns an unmodifiable view of the children, or {@code null}. */
+    private static <T> List<T> children(List<T> list) {
+        return list != null ? Collections.unmodifiableList(list) : null;
+    }
+
+    /**
+     * Returns whether the analyzer has set the node's variable, function or
+     * type, for nodes that have one.
+     */
+    boolean isAnalyzed() {
+        return false;
+    }
+
     public static final class Source extends Ast {
 
         private final List<Field> fields;
         private final List<Method> methods;
 
         public Source(List<Field> fields, List<Method> methods) {
-            this.fields = fields;
-            this.methods = methods;
+            this.fields = children(fields);
+            this.methods = children(methods);
         }
 
         public List<Field> getFields() {
@@ -29,9 +98,19 @@ public abstract class Ast {
             return methods;
         }
 
+        @Override
+        int computeHash() {
+            return Objects.hash(1, fields, methods);
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Source &&
+            return obj == this || obj instanceof Source && hashCode() == obj.hashCode() &&
                     fields.equals(((Source) obj).fields) &&
                     methods.equals(((Source) obj).methods);
         }
@@ -86,9 +165,24 @@ public abstract class Ast {
             this.variable = variable;
         }
 
+        @Override
+        boolean isAnalyzed() {
+            return variable != null;
+        }
+
+        @Override
+        int computeHash() {
+            return Objects.hash(2, name, typeName, value);
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Field &&
+            return obj == this || obj instanceof Field && hashCode() == obj.hashCode() &&
                     name.equals(((Field) obj).name) &&
                     typeName.equals(((Field) obj).typeName) &&
                     value.equals(((Field) obj).value) &&
@@ -113,22 +207,35 @@ public abstract class Ast {
         private final List<String> parameters;
         private final List<String> parameterTypeNames;
         private final Optional<String> returnTypeName;
-        private final List<Stmt> statements;
+        private volatile List<Stmt> statements;
+        private Supplier<List<Stmt>> body;
         private Environment.Function function = null;
 
         public Method(String name, List<String> parameters, List<Stmt> statements) {
-            this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
-            for (int i = 0; i < parameters.size(); i++) {
-                parameterTypeNames.add("Any");
-            }
+            this(name, parameters, Collections.nCopies(parameters.size(), "Any"), Optional.of("Any"), statements);
         }
 
         public Method(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, List<Stmt> statements) {
             this.name = name;
-            this.parameters = parameters;
-            this.parameterTypeNames = parameterTypeNames;
+            this.parameters = children(parameters);
+            this.parameterTypeNames = children(parameterTypeNames);
             this.returnTypeName = returnTypeName;
-            this.statements = statements;
+            this.statements = children(statements);
+        }
+
+        /**
+         * Creates a method whose statements are only created by {@code body}
+         * the first time they are asked for, such as a body that has not been
+         * parsed yet.
+         */
+        public Method(String name, List<String> parameters, Supplier<List<Stmt>> body) {
+            this(name, parameters, (List<Stmt>) null);
+            this.body = body;
+        }
+
+        public Method(String name, List<String> parameters, List<String> parameterTypeNames, Optional<String> returnTypeName, Supplier<List<Stmt>> body) {
+            this(name, parameters, parameterTypeNames, returnTypeName, (List<Stmt>) null);
+            this.body = body;
         }
 
         public String getName() {
@@ -147,10 +254,30 @@ public abstract class Ast {
             return returnTypeName;
         }
 
+        /**
+         * Returns the statements, creating them from the body on the first call.
+         * This is safe to call from several threads; the body runs once, unless
+         * it throws, in which case the next call tries again.
+         */
         public List<Stmt> getStatements() {
+            List<Stmt> statements = this.statements;
+            if (statements == null) {
+                synchronized (this) {
+                    if (this.statements == null && body != null) {
+                        this.statements = children(body.get());
+                        body = null;
+                    }
+                    statements = this.statements;
+                }
+            }
             return statements;
         }
 
+        /** Returns true if the statements exist, rather than only a body. */
+        public boolean hasStatements() {
+            return statements != null;
+        }
+
         public Environment.Function getFunction() {
             if (function == null) {
                 throw new IllegalStateException("function is uninitialized");
@@ -162,15 +289,36 @@ public abstract class Ast {
             this.function = function;
         }
 
+        @Override
+        boolean isAnalyzed() {
+            return function != null;
+        }
+
+        @Override
+        int computeHash() {
+            return Objects.hash(3, name, parameters, parameterTypeNames, returnTypeName, getStatements());
+        }
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
+        /**
+         * Compares the signatures before the hashes, which include the
+         * statements, so deferred bodies are only parsed when the rest of the
+         * methods are equal.
+         */
         @Override
         public boolean equals(Object obj) {
-            return obj instanceof Method &&
+            return obj == this || obj instanceof Method &&
                     name.equals(((Method) obj).name) &&
                     parameters.equals(((Method) obj).parameters) &&
                     parameterTypeNames.equals(((Method) obj).parameterTypeNames) &&
                     returnTypeName.equals(((Method) obj).returnTypeName) &&
-                    statements.equals(((Method) obj).statements) &&
-                    Objects.equals(function, ((Method) obj).function);
+                    Objects.equals(function, ((Method) obj).function) &&
+                    hashCode() == obj.hashCode() &&
+                    getStatements().equals(((Method) obj).getStatements());
         }
 
         @Override
@@ -180,7 +328,7 @@ public abstract class Ast {
                     ", parameters=" + parameters +
                     ", parameterTypeNames=" + parameterTypeNames +
                     ", returnTypeName='" + returnTypeName + '\'' +
-                    ", statements=" + statements +
+                    ", statements=" + (hasStatements() ? statements : "(not parsed)") +
                     ", function=" + function +
                     '}';
         }
@@ -201,9 +349,19 @@ public abstract class Ast {
                 return expression;
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(4, expression);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Expression &&
+                return obj == this || obj instanceof Expression && hashCode() == obj.hashCode() &&
                         expression.equals(((Expression) obj).expression);
             }
 
@@ -256,9 +414,24 @@ public abstract class Ast {
                 this.variable = variable;
             }
 
+            @Override
+            boolean isAnalyzed() {
+                return variable != null;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(5, name, typeName, value);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Declaration &&
+                return obj == this || obj instanceof Declaration && hashCode() == obj.hashCode() &&
                         name.equals(((Declaration) obj).name) &&
                         typeName.equals(((Declaration) obj).typeName) &&
                         value.equals(((Declaration) obj).value) &&
@@ -295,9 +468,19 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(6, receiver, value);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Assignment &&
+                return obj == this || obj instanceof Assignment && hashCode() == obj.hashCode() &&
                         receiver.equals(((Assignment) obj).receiver) &&
                         value.equals(((Assignment) obj).value);
             }
@@ -321,8 +504,8 @@ public abstract class Ast {
 
             public If(Expr condition, List<Stmt> thenStatements, List<Stmt> elseStatements) {
                 this.condition = condition;
-                this.thenStatements = thenStatements;
-                this.elseStatements = elseStatements;
+                this.thenStatements = children(thenStatements);
+                this.elseStatements = children(elseStatements);
             }
 
             public Expr getCondition() {
@@ -337,9 +520,19 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(7, condition, thenStatements, elseStatements);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof If &&
+                return obj == this || obj instanceof If && hashCode() == obj.hashCode() &&
                         condition.equals(((If) obj).condition) &&
                         thenStatements.equals(((If) obj).thenStatements) &&
                         elseStatements.equals(((If) obj).elseStatements);
@@ -365,7 +558,7 @@ public abstract class Ast {
             public For(String name, Expr value, List<Stmt> statements) {
                 this.name = name;
                 this.value = value;
-                this.statements = statements;
+                this.statements = children(statements);
             }
 
             public String getName() {
@@ -380,9 +573,19 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(8, name, value, statements);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof For &&
+                return obj == this || obj instanceof For && hashCode() == obj.hashCode() &&
                         name.equals(((For) obj).name) &&
                         value.equals(((For) obj).value) &&
                         statements.equals(((For) obj).statements);
@@ -406,7 +609,7 @@ public abstract class Ast {
 
             public While(Expr condition, List<Stmt> statements) {
                 this.condition = condition;
-                this.statements = statements;
+                this.statements = children(statements);
             }
 
             public Expr getCondition() {
@@ -417,9 +620,19 @@ public abstract class Ast {
                 return statements;
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(9, condition, statements);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof While &&
+                return obj == this || obj instanceof While && hashCode() == obj.hashCode() &&
                         condition.equals(((While) obj).condition) &&
                         statements.equals(((While) obj).statements);
             }
@@ -446,9 +659,19 @@ public abstract class Ast {
                 return value;
             }
 
+            @Override
+            int computeHash() {
+                return Objects.hash(10, value);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Return &&
+                return obj == this || obj instanceof Return && hashCode() == obj.hashCode() &&
                         value.equals(((Return) obj).value);
             }
 
@@ -470,7 +693,8 @@ public abstract class Ast {
         public static final class Literal extends Expr {
 
             private final Object literal;
-            private Environment.Type type = null;
+            /** Volatile, as a node shared by an {@link ExprTable} may be analyzed on several threads. */
+            private volatile Environment.Type type = null;
 
             public Literal(Object literal) {
                 this.literal = literal;
@@ -492,9 +716,24 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            boolean isAnalyzed() {
+                return type != null;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(11, literal);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Literal &&
+                return obj == this || obj instanceof Literal && hashCode() == obj.hashCode() &&
                         Objects.equals(literal, ((Literal) obj).literal) &&
                         Objects.equals(type, ((Literal) obj).type);
             }
@@ -512,7 +751,8 @@ public abstract class Ast {
         public static final class Group extends Expr {
 
             private final Expr expression;
-            private Environment.Type type = null;
+            /** Volatile, as a node shared by an {@link ExprTable} may be analyzed on several threads. */
+            private volatile Environment.Type type = null;
 
             public Group(Expr expression) {
                 this.expression = expression;
@@ -533,9 +773,25 @@ public abstract class Ast {
             public void setType(Environment.Type type) {
                 this.type = type;
             }
+
+            @Override
+            boolean isAnalyzed() {
+                return type != null;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(12, expression);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Group &&
+                return obj == this || obj instanceof Group && hashCode() == obj.hashCode() &&
                         expression.equals(((Group) obj).expression) &&
                         Objects.equals(type, ((Group) obj).type);
             }
@@ -555,7 +811,8 @@ public abstract class Ast {
             private final String operator;
             private final Expr left;
             private final Expr right;
-            private Environment.Type type = null;
+            /** Volatile, as a node shared by an {@link ExprTable} may be analyzed on several threads. */
+            private volatile Environment.Type type = null;
 
             public Binary(String operator, Expr left, Expr right) {
                 this.operator = operator;
@@ -587,9 +844,24 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            @Override
+            boolean isAnalyzed() {
+                return type != null;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(13, operator, left, right);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Binary &&
+                return obj == this || obj instanceof Binary && hashCode() == obj.hashCode() &&
                         operator.equals(((Binary) obj).operator) &&
                         left.equals(((Binary) obj).left) &&
                         right.equals(((Binary) obj).right) &&
@@ -612,11 +884,17 @@ public abstract class Ast {
 
             private final Optional<Expr> receiver;
             private final String name;
+            private final int symbol;
             private Environment.Variable variable = null;
 
             public Access(Optional<Expr> receiver, String name) {
+                this(receiver, name, -1);
+            }
+
+            public Access(Optional<Expr> receiver, String name, int symbol) {
                 this.receiver = receiver;
                 this.name = name;
+                this.symbol = symbol;
             }
 
             public Optional<Expr> getReceiver() {
@@ -627,6 +905,14 @@ public abstract class Ast {
                 return name;
             }
 
+            /**
+             * Returns the {@link SymbolTable} symbol of the name, or {@code -1}
+             * if it was not interned. Not part of equality.
+             */
+            public int getSymbol() {
+                return symbol;
+            }
+
             public Environment.Variable getVariable() {
                 if (variable == null) {
                     throw new IllegalStateException("variable is uninitialized");
@@ -643,9 +929,24 @@ public abstract class Ast {
                 return getVariable().getType();
             }
 
+            @Override
+            boolean isAnalyzed() {
+                return variable != null;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(14, receiver, name);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Access &&
+                return obj == this || obj instanceof Access && hashCode() == obj.hashCode() &&
                         receiver.equals(((Access) obj).receiver) &&
                         name.equals(((Access) obj).name) &&
                         Objects.equals(variable, ((Access) obj).variable);
@@ -666,13 +967,19 @@ public abstract class Ast {
 
             private final Optional<Expr> receiver;
             private final String name;
+            private final int symbol;
             private final List<Expr> arguments;
             private Environment.Function function = null;
 
             public Function(Optional<Expr> receiver, String name, List<Expr> arguments) {
+                this(receiver, name, -1, arguments);
+            }
+
+            public Function(Optional<Expr> receiver, String name, int symbol, List<Expr> arguments) {
                 this.receiver = receiver;
                 this.name = name;
-                this.arguments = arguments;
+                this.symbol = symbol;
+                this.arguments = children(arguments);
             }
 
             public Optional<Expr> getReceiver() {
@@ -683,6 +990,14 @@ public abstract class Ast {
                 return name;
             }
 
+            /**
+             * Returns the {@link SymbolTable} symbol of the name, or {@code -1}
+             * if it was not interned. Not part of equality.
+             */
+            public int getSymbol() {
+                return symbol;
+            }
+
             public List<Expr> getArguments() {
                 return arguments;
             }
@@ -703,9 +1018,24 @@ public abstract class Ast {
                 return getFunction().getReturnType();
             }
 
+            @Override
+            boolean isAnalyzed() {
+                return function != null;
+            }
+
+            @Override
+            int computeHash() {
+                return Objects.hash(15, receiver, name, arguments);
+            }
+
+            @Override
+            public <T> T accept(Visitor<T> visitor) {
+                return visitor.visit(this);
+            }
+
             @Override
             public boolean equals(Object obj) {
-                return obj instanceof Function &&
+                return obj == this || obj instanceof Function && hashCode() == obj.hashCode() &&
                         receiver.equals(((Function) obj).receiver) &&
                         name.equals(((Function) obj).name) &&
                         arguments.equals(((Function) obj).arguments) &&
@@ -728,40 +1058,9 @@ public abstract class Ast {
 
     public interface Visitor<T> {
 
+        /** Dispatches on the node's class through {@link Ast#accept(Visitor)}. */
         default T visit(Ast ast) {
-            if (ast instanceof Source) {
-                return visit((Source) ast);
-            } else if (ast instanceof Field) {
-                return visit((Field) ast);
-            } else if (ast instanceof Method) {
-                return visit((Method) ast);
-            } else if (ast instanceof Stmt.Expression) {
-                return visit((Stmt.Expression) ast);
-            } else if (ast instanceof Stmt.Declaration) {
-                return visit((Stmt.Declaration) ast);
-            } else if (ast instanceof Stmt.Assignment) {
-                return visit((Stmt.Assignment) ast);
-            } else if (ast instanceof Stmt.If) {
-                return visit((Stmt.If) ast);
-            } else if (ast instanceof Stmt.For) {
-                return visit((Stmt.For) ast);
-            } else if (ast instanceof Stmt.While) {
-                return visit((Stmt.While) ast);
-            } else if (ast instanceof Stmt.Return) {
-                return visit((Stmt.Return) ast);
-            } else if (ast instanceof Expr.Literal) {
-                return visit((Expr.Literal) ast);
-            } else if (ast instanceof Expr.Group) {
-                return visit((Expr.Group) ast);
-            } else if (ast instanceof Expr.Binary) {
-                return visit((Expr.Binary) ast);
-            } else if (ast instanceof Expr.Access) {
-                return visit((Expr.Access) ast);
-            } else if (ast instanceof Expr.Function) {
-                return visit((Expr.Function) ast);
-            } else {
-                throw new AssertionError("Unimplemented AST type: " + ast.getClass().getName() + ".");
-            }
+            return ast.accept(this);
         }
 
         T visit(Source ast);
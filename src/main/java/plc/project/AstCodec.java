@@ -0,0 +1,692 @@
+package plc.project;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Writes and reads an {@link Ast.Source} in a compact binary format, so that
+ * a program parsed and analyzed once can be loaded again without lexing,
+ * parsing or analyzing it.
+ *
+ * A file is the {@link #MAGIC} number and the {@link #VERSION}, then the
+ * nodes of the tree in postorder. Each node follows its children and is a
+ * kind byte followed by its names, the counts of its children and its
+ * analysis results; counts and string references are variable length
+ * integers. A string is written once, the first time it is used, and
+ * referred to by its number afterwards. The {@link Environment.Variable},
+ * {@link Environment.Function} and {@link Environment.Type} set by the
+ * {@link Analyzer} are written by name and resolved again when read, so their
+ * types must be registered with {@link Environment#registerType}. Variables
+ * are read with the value {@link Environment#NIL} and functions with a body
+ * returning it, as the analyzer creates them. Trees of any depth are
+ * written with an {@link AstWalker} and read with an explicit stack of the
+ * nodes waiting for their parent.
+ */
+public final class AstCodec {
+
+    /** The first four bytes of a file, {@code "PLCA"}. */
+    public static final int MAGIC = 0x504C4341;
+
+    /** The format version, increased whenever the format changes. */
+    public static final int VERSION = 2;
+
+    private static final byte SOURCE = 1;
+    private static final byte FIELD = 2;
+    private static final byte METHOD = 3;
+    private static final byte EXPRESSION = 4;
+    private static final byte DECLARATION = 5;
+    private static final byte ASSIGNMENT = 6;
+    private static final byte IF = 7;
+    private static final byte FOR = 8;
+    private static final byte WHILE = 9;
+    private static final byte RETURN = 10;
+    private static final byte LITERAL = 11;
+    private static final byte GROUP = 12;
+    private static final byte BINARY = 13;
+    private static final byte ACCESS = 14;
+    private static final byte FUNCTION = 15;
+
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte LONG = 3;
+    private static final byte INTEGER = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte CHARACTER = 6;
+    private static final byte STRING = 7;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private AstCodec() {}
+
+    /** Writes the source, leaving the stream open. */
+    public static void write(Ast.Source source, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeInt(MAGIC);
+        writer.writeByte(VERSION);
+        try {
+            writer.walk(source);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Reads a source written by {@link #write}, throwing an
+     * {@link IOException} if the stream is not in this format and version.
+     * The stream is read through a buffer, so bytes after the source may be
+     * consumed as well.
+     */
+    public static Ast.Source read(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        if (reader.readInt() != MAGIC) {
+            throw new IOException("Not an AST file.");
+        }
+        int version = reader.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported AST file version " + version + ", expected " + VERSION + ".");
+        }
+        return reader.readSource();
+    }
+
+    /**
+     * Writes each node as it is left by the walk, after its children, through
+     * a buffer that is written out whenever it fills, wrapping errors of the
+     * stream in an {@link UncheckedIOException}.
+     */
+    private static final class Writer extends AstWalker implements Ast.Visitor<Void> {
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int size = 0;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        private Writer(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        protected void exit(Ast ast) {
+            ast.accept(this);
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            writeByte(SOURCE);
+            writeNumber(ast.getFields().size());
+            writeNumber(ast.getMethods().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Field ast) {
+            writeByte(FIELD);
+            writeString(ast.getName());
+            writeString(ast.getTypeName());
+            writePresent(ast.getValue());
+            writeVariable(ast.isAnalyzed() ? ast.getVariable() : null);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Method ast) {
+            writeByte(METHOD);
+            writeString(ast.getName());
+            writeStrings(ast.getParameters());
+            writeStrings(ast.getParameterTypeNames());
+            writeString(ast.getReturnTypeName().orElse(null));
+            writeNumber(ast.getStatements().size());
+            writeFunction(ast.isAnalyzed() ? ast.getFunction() : null);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Expression ast) {
+            writeByte(EXPRESSION);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Declaration ast) {
+            writeByte(DECLARATION);
+            writeString(ast.getName());
+            writeString(ast.getTypeName().orElse(null));
+            writePresent(ast.getValue());
+            writeVariable(ast.isAnalyzed() ? ast.getVariable() : null);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Assignment ast) {
+            writeByte(ASSIGNMENT);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.If ast) {
+            writeByte(IF);
+            writeNumber(ast.getThenStatements().size());
+            writeNumber(ast.getElseStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.For ast) {
+            writeByte(FOR);
+            writeString(ast.getName());
+            writeNumber(ast.getStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.While ast) {
+            writeByte(WHILE);
+            writeNumber(ast.getStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Return ast) {
+            writeByte(RETURN);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Literal ast) {
+            writeByte(LITERAL);
+            writeLiteral(ast.getLiteral());
+            writeType(ast);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Group ast) {
+            writeByte(GROUP);
+            writeType(ast);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Binary ast) {
+            writeByte(BINARY);
+            writeString(ast.getOperator());
+            writeType(ast);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Access ast) {
+            writeByte(ACCESS);
+            writePresent(ast.getReceiver());
+            writeString(ast.getName());
+            writeVariable(ast.isAnalyzed() ? ast.getVariable() : null);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Function ast) {
+            writeByte(FUNCTION);
+            writePresent(ast.getReceiver());
+            writeString(ast.getName());
+            writeNumber(ast.getArguments().size());
+            writeFunction(ast.isAnalyzed() ? ast.getFunction() : null);
+            return null;
+        }
+
+        /** Writes whether an optional child was written before the node. */
+        private void writePresent(Optional<Ast.Expr> expr) {
+            writeByte(expr.isPresent() ? 1 : 0);
+        }
+
+        private void writeType(Ast.Expr ast) {
+            writeString(ast.isAnalyzed() ? ast.getType().getName() : null);
+        }
+
+        private void writeVariable(Environment.Variable variable) {
+            writeByte(variable != null ? 1 : 0);
+            if (variable != null) {
+                writeString(variable.getName());
+                writeString(variable.getJvmName());
+                writeString(variable.getType().getName());
+            }
+        }
+
+        private void writeFunction(Environment.Function function) {
+            writeByte(function != null ? 1 : 0);
+            if (function != null) {
+                writeString(function.getName());
+                writeString(function.getJvmName());
+                writeNumber(function.getParameterTypes().size());
+                for (Environment.Type type : function.getParameterTypes()) {
+                    writeString(type.getName());
+                }
+                writeString(function.getReturnType().getName());
+            }
+        }
+
+        private void writeLiteral(Object literal) {
+            if (literal == null) {
+                writeByte(NIL);
+            } else if (literal instanceof Boolean) {
+                writeByte((Boolean) literal ? TRUE : FALSE);
+            } else if (literal instanceof BigInteger && ((BigInteger) literal).bitLength() < 64) {
+                writeByte(LONG);
+                long value = ((BigInteger) literal).longValue();
+                writeNumber(value << 1 ^ value >> 63);
+            } else if (literal instanceof BigInteger) {
+                writeByte(INTEGER);
+                writeBytes(((BigInteger) literal).toByteArray());
+            } else if (literal instanceof BigDecimal) {
+                writeByte(DECIMAL);
+                writeBytes(((BigDecimal) literal).unscaledValue().toByteArray());
+                writeInt(((BigDecimal) literal).scale());
+            } else if (literal instanceof Character) {
+                writeByte(CHARACTER);
+                writeNumber((Character) literal);
+            } else if (literal instanceof String) {
+                writeByte(STRING);
+                writeString((String) literal);
+            } else {
+                throw new IllegalArgumentException("Unsupported literal " + literal.getClass().getName() + ".");
+            }
+        }
+
+        private void writeStrings(List<String> strings) {
+            writeNumber(strings.size());
+            for (String string : strings) {
+                writeString(string);
+            }
+        }
+
+        /**
+         * Writes {@code 0} for {@code null}, the number of a string already
+         * written, or the next number followed by the string.
+         */
+        private void writeString(String string) {
+            if (string == null) {
+                writeNumber(0);
+                return;
+            }
+            Integer number = strings.get(string);
+            if (number != null) {
+                writeNumber(number);
+            } else {
+                strings.put(string, strings.size() + 1);
+                writeNumber(strings.size());
+                writeBytes(string.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private void writeBytes(byte[] bytes) {
+            writeNumber(bytes.length);
+            for (byte b : bytes) {
+                writeByte(b);
+            }
+        }
+
+        private void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                writeByte(value >>> shift);
+            }
+        }
+
+        /** Writes a non-negative number in 7 bit groups, low group first. */
+        private void writeNumber(long number) {
+            while ((number & ~0x7FL) != 0) {
+                writeByte((int) number & 0x7F | 0x80);
+                number >>>= 7;
+            }
+            writeByte((int) number);
+        }
+
+        private void writeByte(int value) {
+            if (size == buffer.length) {
+                flush();
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void flush() {
+            try {
+                out.write(buffer, 0, size);
+                size = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /** Reads nodes through a buffer filled from the stream whenever it empties. */
+    private static final class Reader {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position = 0;
+        private int limit = 0;
+        private String[] strings = new String[256];
+        private Environment.Type[] types = new Environment.Type[256];
+        private int size = 0;
+
+        /** The nodes read whose parent has not been read yet, in order. */
+        private final List<Ast> stack = new ArrayList<>();
+
+        private Reader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads nodes until the source, keeping each on the stack until its
+         * parent is read. The source must be the parent of all of them.
+         */
+        private Ast.Source readSource() throws IOException {
+            while (true) {
+                int kind = readByte();
+                Ast ast = read(kind);
+                if (kind == SOURCE) {
+                    if (!stack.isEmpty()) {
+                        throw new IOException("AST file has nodes outside its source.");
+                    }
+                    return (Ast.Source) ast;
+                }
+                stack.add(ast);
+            }
+        }
+
+        /** Reads a node of the kind, taking its children off the stack. */
+        private Ast read(int kind) throws IOException {
+            switch (kind) {
+                case SOURCE: {
+                    int fieldCount = readNumber();
+                    List<Ast.Method> methods = popAll(Ast.Method.class, readNumber());
+                    List<Ast.Field> fields = popAll(Ast.Field.class, fieldCount);
+                    return new Ast.Source(fields, methods);
+                }
+                case FIELD: {
+                    String name = readString();
+                    String typeName = readString();
+                    Ast.Field field = new Ast.Field(name, typeName, popOptional());
+                    if (readByte() != 0) {
+                        field.setVariable(readVariable());
+                    }
+                    return field;
+                }
+                case METHOD: {
+                    String name = readString();
+                    List<String> parameters = readStrings();
+                    List<String> parameterTypeNames = readStrings();
+                    Optional<String> returnTypeName = Optional.ofNullable(readString());
+                    List<Ast.Stmt> statements = popAll(Ast.Stmt.class, readNumber());
+                    Ast.Method method = new Ast.Method(name, parameters, parameterTypeNames, returnTypeName, statements);
+                    if (readByte() != 0) {
+                        method.setFunction(readFunction());
+                    }
+                    return method;
+                }
+                case EXPRESSION:
+                    return new Ast.Stmt.Expression(pop(Ast.Expr.class));
+                case DECLARATION: {
+                    String name = readString();
+                    Optional<String> typeName = Optional.ofNullable(readString());
+                    Ast.Stmt.Declaration declaration = new Ast.Stmt.Declaration(name, typeName, popOptional());
+                    if (readByte() != 0) {
+                        declaration.setVariable(readVariable());
+                    }
+                    return declaration;
+                }
+                case ASSIGNMENT: {
+                    Ast.Expr value = pop(Ast.Expr.class);
+                    return new Ast.Stmt.Assignment(pop(Ast.Expr.class), value);
+                }
+                case IF: {
+                    int thenCount = readNumber();
+                    List<Ast.Stmt> elseStatements = popAll(Ast.Stmt.class, readNumber());
+                    List<Ast.Stmt> thenStatements = popAll(Ast.Stmt.class, thenCount);
+                    return new Ast.Stmt.If(pop(Ast.Expr.class), thenStatements, elseStatements);
+                }
+                case FOR: {
+                    String name = readString();
+                    List<Ast.Stmt> statements = popAll(Ast.Stmt.class, readNumber());
+                    return new Ast.Stmt.For(name, pop(Ast.Expr.class), statements);
+                }
+                case WHILE: {
+                    List<Ast.Stmt> statements = popAll(Ast.Stmt.class, readNumber());
+                    return new Ast.Stmt.While(pop(Ast.Expr.class), statements);
+                }
+                case RETURN:
+                    return new Ast.Stmt.Return(pop(Ast.Expr.class));
+                case LITERAL: {
+                    Ast.Expr.Literal literal = new Ast.Expr.Literal(readLiteral());
+                    literal.setType(readType());
+                    return literal;
+                }
+                case GROUP: {
+                    Ast.Expr.Group group = new Ast.Expr.Group(pop(Ast.Expr.class));
+                    group.setType(readType());
+                    return group;
+                }
+                case BINARY: {
+                    String operator = readString();
+                    Ast.Expr right = pop(Ast.Expr.class);
+                    Ast.Expr.Binary binary = new Ast.Expr.Binary(operator, pop(Ast.Expr.class), right);
+                    binary.setType(readType());
+                    return binary;
+                }
+                case ACCESS: {
+                    Optional<Ast.Expr> receiver = popOptional();
+                    Ast.Expr.Access access = new Ast.Expr.Access(receiver, readString());
+                    if (readByte() != 0) {
+                        access.setVariable(readVariable());
+                    }
+                    return access;
+                }
+                case FUNCTION: {
+                    boolean hasReceiver = readByte() != 0;
+                    String name = readString();
+                    List<Ast.Expr> arguments = popAll(Ast.Expr.class, readNumber());
+                    Optional<Ast.Expr> receiver = hasReceiver ? Optional.of(pop(Ast.Expr.class)) : Optional.empty();
+                    Ast.Expr.Function function = new Ast.Expr.Function(receiver, name, arguments);
+                    if (readByte() != 0) {
+                        function.setFunction(readFunction());
+                    }
+                    return function;
+                }
+                default:
+                    throw new IOException("Unknown AST node kind " + kind + ".");
+            }
+        }
+
+        /**
+         * Takes the last node off the stack, throwing an {@link IOException}
+         * if there is none or it is not of the type expected, such as a
+         * statement in place of an expression.
+         */
+        private <T extends Ast> T pop(Class<T> type) throws IOException {
+            if (stack.isEmpty()) {
+                throw new IOException("AST file is missing a child node.");
+            }
+            return require(type, stack.remove(stack.size() - 1));
+        }
+
+        /** Takes the last {@code count} nodes off the stack, in order. */
+        private <T extends Ast> List<T> popAll(Class<T> type, int count) throws IOException {
+            if (count > stack.size()) {
+                throw new IOException("AST file is missing a child node.");
+            }
+            List<Ast> children = stack.subList(stack.size() - count, stack.size());
+            List<T> asts = new ArrayList<>(count);
+            for (Ast ast : children) {
+                asts.add(require(type, ast));
+            }
+            children.clear();
+            return asts;
+        }
+
+        /** Reads whether an optional expression is present, taking it if so. */
+        private Optional<Ast.Expr> popOptional() throws IOException {
+            return readByte() != 0 ? Optional.of(pop(Ast.Expr.class)) : Optional.empty();
+        }
+
+        private static <T extends Ast> T require(Class<T> type, Ast ast) throws IOException {
+            if (!type.isInstance(ast)) {
+                throw new IOException("AST file has " + ast.getClass().getSimpleName() + " where " + type.getSimpleName() + " was expected.");
+            }
+            return type.cast(ast);
+        }
+
+        private Environment.Variable readVariable() throws IOException {
+            return new Environment.Variable(readString(), readString(), readType(), Environment.NIL);
+        }
+
+        private Environment.Function readFunction() throws IOException {
+            String name = readString();
+            String jvmName = readString();
+            Environment.Type[] parameterTypes = new Environment.Type[readNumber()];
+            for (int i = 0; i < parameterTypes.length; i++) {
+                parameterTypes[i] = readType();
+            }
+            return new Environment.Function(name, jvmName, Arrays.asList(parameterTypes), readType(), args -> Environment.NIL);
+        }
+
+        private Object readLiteral() throws IOException {
+            int kind = readByte();
+            switch (kind) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case LONG:
+                    long value = readLong();
+                    return BigInteger.valueOf(value >>> 1 ^ -(value & 1));
+                case INTEGER:
+                    return new BigInteger(readBytes());
+                case DECIMAL:
+                    return new BigDecimal(new BigInteger(readBytes()), readInt());
+                case CHARACTER:
+                    return (char) readNumber();
+                case STRING:
+                    return readString();
+                default:
+                    throw new IOException("Unknown literal kind " + kind + ".");
+            }
+        }
+
+        private List<String> readStrings() throws IOException {
+            int count = readNumber();
+            List<String> strings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                strings.add(readString());
+            }
+            return strings;
+        }
+
+        /** Reads a type name, resolving each distinct name only once. */
+        private Environment.Type readType() throws IOException {
+            int number = readStringNumber();
+            if (number == 0) {
+                return null;
+            } else if (types[number - 1] == null) {
+                try {
+                    types[number - 1] = Environment.getType(strings[number - 1]);
+                } catch (RuntimeException e) {
+                    throw new IOException("AST file refers to the unregistered type " + strings[number - 1] + ".", e);
+                }
+            }
+            return types[number - 1];
+        }
+
+        private String readString() throws IOException {
+            int number = readStringNumber();
+            return number == 0 ? null : strings[number - 1];
+        }
+
+        /** Reads a string reference, reading the string itself the first time. */
+        private int readStringNumber() throws IOException {
+            int number = readNumber();
+            if (number == size + 1) {
+                if (size == strings.length) {
+                    strings = Arrays.copyOf(strings, size * 2);
+                    types = Arrays.copyOf(types, size * 2);
+                }
+                strings[size++] = new String(readBytes(), StandardCharsets.UTF_8);
+            } else if (number > size) {
+                throw new IOException("String " + number + " read before it was defined.");
+            }
+            return number;
+        }
+
+        /**
+         * Reads a length and that many bytes, growing the array only as the
+         * bytes arrive, so a corrupt length ends the file instead of
+         * allocating up to its size.
+         */
+        private byte[] readBytes() throws IOException {
+            int length = readNumber();
+            byte[] bytes = new byte[Math.min(length, BUFFER_SIZE)];
+            for (int i = 0; i < length; i++) {
+                if (i == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * i));
+                }
+                bytes[i] = (byte) readByte();
+            }
+            return bytes;
+        }
+
+        private int readInt() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = value << 8 | readByte();
+            }
+            return value;
+        }
+
+        private int readNumber() throws IOException {
+            long number = readLong();
+            if (number < 0 || number > Integer.MAX_VALUE) {
+                throw new IOException("Malformed number.");
+            }
+            return (int) number;
+        }
+
+        private long readLong() throws IOException {
+            long number = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int group = readByte();
+                number |= (long) (group & 0x7F) << shift;
+                if ((group & 0x80) == 0) {
+                    return number;
+                }
+            }
+            throw new IOException("Malformed number.");
+        }
+
+        private int readByte() throws IOException {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    throw new EOFException("Unexpected end of AST file.");
+                }
+            }
+            return buffer[position++] & 0xFF;
+        }
+
+    }
+
+}
@@ -0,0 +1,195 @@
+package plc.project;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Walks an AST depth first with an explicit stack, calling {@link #enter}
+ * before a node's children and {@link #exit} after them, so a pass sees each
+ * node in the same order as a recursive visitor without using a native stack
+ * frame per level. A tree of any depth can be walked, such as a long chain of
+ * binary expressions.
+ *
+ * Children are walked in source order: fields before methods, and receivers
+ * and conditions before the statements and arguments after them. Walking a
+ * method parses its body if that was deferred. A walker keeps its stack
+ * between walks, so it is not thread-safe, but a hook may start a nested
+ * walk of another tree with the same walker.
+ */
+public abstract class AstWalker {
+
+    private final Children children = new Children();
+    private Ast[] stack = new Ast[64];
+    private boolean[] entered = new boolean[64];
+    private int size = 0;
+
+    /**
+     * Called before the children of the node are walked. Returning
+     * {@code false} skips them, though {@link #exit} is still called.
+     */
+    protected boolean enter(Ast ast) {
+        return true;
+    }
+
+    /** Called after the children of the node have been walked. */
+    protected void exit(Ast ast) {}
+
+    /** Walks the tree rooted at the node. */
+    public final void walk(Ast root) {
+        int base = size;
+        try {
+            push(root);
+            while (size > base) {
+                int top = size - 1;
+                Ast ast = stack[top];
+                if (!entered[top]) {
+                    entered[top] = true;
+                    if (enter(ast)) {
+                        int first = size;
+                        ast.accept(children);
+                        reverse(first, size - 1);
+                    }
+                } else {
+                    stack[--size] = null;
+                    exit(ast);
+                }
+            }
+        } finally {
+            Arrays.fill(stack, base, size, null);
+            size = base;
+        }
+    }
+
+    private void push(Ast ast) {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+            entered = Arrays.copyOf(entered, size * 2);
+        }
+        stack[size] = ast;
+        entered[size] = false;
+        size++;
+    }
+
+    /** Reverses the children just pushed, so the first is walked first. */
+    private void reverse(int from, int to) {
+        for (; from < to; from++, to--) {
+            Ast ast = stack[from];
+            stack[from] = stack[to];
+            stack[to] = ast;
+        }
+    }
+
+    /** Pushes the children of a node in source order. */
+    private final class Children implements Ast.Visitor<Void> {
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            pushAll(ast.getFields());
+            pushAll(ast.getMethods());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Field ast) {
+            pushOptional(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Method ast) {
+            pushAll(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Expression ast) {
+            push(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Declaration ast) {
+            pushOptional(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Assignment ast) {
+            push(ast.getReceiver());
+            push(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.If ast) {
+            push(ast.getCondition());
+            pushAll(ast.getThenStatements());
+            pushAll(ast.getElseStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.For ast) {
+            push(ast.getValue());
+            pushAll(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.While ast) {
+            push(ast.getCondition());
+            pushAll(ast.getStatements());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Return ast) {
+            push(ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Literal ast) {
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Group ast) {
+            push(ast.getExpression());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Binary ast) {
+            push(ast.getLeft());
+            push(ast.getRight());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Access ast) {
+            pushOptional(ast.getReceiver());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Function ast) {
+            pushOptional(ast.getReceiver());
+            pushAll(ast.getArguments());
+            return null;
+        }
+
+        private void pushAll(List<? extends Ast> asts) {
+            for (Ast ast : asts) {
+                push(ast);
+            }
+        }
+
+        private void pushOptional(Optional<? extends Ast> ast) {
+            ast.ifPresent(AstWalker.this::push);
+        }
+
+    }
+
+}
@@ -2,9 +2,9 @@ package plc.project;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class Environment {
 
@@ -17,20 +17,64 @@ public final class Environment {
 
     });
 
-    private static final Map<String, Type> TYPES = new HashMap<>();
+    /** Registered types, which may be looked up and registered from any thread. */
+    private static final Map<String, Type> TYPES = new ConcurrentHashMap<>();
+
+    /** The assignability of registered types, replaced as each one is registered. */
+    private static volatile Lattice lattice = new Lattice(new Type[0], new long[0][], new long[0]);
 
     public static Type getType(String name) {
-        if (!TYPES.containsKey(name)) {
+        Type type = TYPES.get(name);
+        if (type == null) {
             throw new RuntimeException("Unknown type " + name + ".");
         }
-        return TYPES.get(name);
+        return type;
     }
 
     public static void registerType(Type type) {
-        if (TYPES.containsKey(type.getName())) {
+        if (TYPES.putIfAbsent(type.getName(), type) != null) {
             throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
         }
-        TYPES.put(type.getName(), type);
+        synchronized (Lattice.class) {
+            lattice = lattice.with(type);
+        }
+    }
+
+    /**
+     * Returns whether a value of the type can be assigned to the target: any
+     * type to Any, the comparable types to Comparable, and otherwise only the
+     * same type. For registered types this is one bit of the lattice.
+     */
+    static boolean isAssignable(Type target, Type type) {
+        Lattice lattice = Environment.lattice;
+        int size = lattice.types.length;
+        if (target.id >= 0 && target.id < size && type.id >= 0 && type.id < size) {
+            return (lattice.assignable[target.id][type.id >>> 6] & 1L << type.id) != 0;
+        }
+        return accepts(target, type);
+    }
+
+    /** Returns whether the type is Integer, Decimal, Character or String. */
+    static boolean isComparable(Type type) {
+        Lattice lattice = Environment.lattice;
+        if (type.id >= 0 && type.id < lattice.types.length) {
+            return (lattice.comparable[type.id >>> 6] & 1L << type.id) != 0;
+        }
+        return comparable(type);
+    }
+
+    /** The rule {@link #isAssignable} precomputes, used for unregistered types. */
+    private static boolean accepts(Type target, Type type) {
+        if (target == Type.ANY) {
+            return true;
+        } else if (target == Type.COMPARABLE) {
+            return comparable(type);
+        }
+        return target == type;
+    }
+
+    private static boolean comparable(Type type) {
+        return type == Type.INTEGER || type == Type.DECIMAL || type == Type.CHARACTER || type == Type.STRING;
     }
 
     public static PlcObject create(Object value) {
@@ -53,6 +97,9 @@ public final class Environment {
         private final String jvmName;
         private final Scope scope;
 
+        /** The dense id given when the type is registered, or {@code -1}. */
+        private int id = -1;
+
         public Type(String name, String jvmName, Scope scope) {
             this.name = name;
             this.jvmName = jvmName;
@@ -264,6 +311,53 @@ public final class Environment {
 
     }
 
+    /**
+     * Registered types by dense id, with a bitset per type of the ids that
+     * can be assigned to it and a bitset of the comparable ids. Registering a
+     * type copies the lattice, adding a column for it to every row and a row
+     * for it, so existing lattices never change.
+     */
+    private static final class Lattice {
+
+        private final Type[] types;
+        private final long[][] assignable;
+        private final long[] comparable;
+
+        private Lattice(Type[] types, long[][] assignable, long[] comparable) {
+            this.types = types;
+            this.assignable = assignable;
+            this.comparable = comparable;
+        }
+
+        /** Returns the lattice with the type added, giving it the next id. */
+        private Lattice with(Type type) {
+            int id = types.length;
+            int words = (id >>> 6) + 1;
+            Type[] types = Arrays.copyOf(this.types, id + 1);
+            types[id] = type;
+            long[][] assignable = new long[id + 1][];
+            for (int i = 0; i < id; i++) {
+                assignable[i] = Arrays.copyOf(this.assignable[i], words);
+                if (accepts(types[i], type)) {
+                    assignable[i][id >>> 6] |= 1L << id;
+                }
+            }
+            assignable[id] = new long[words];
+            for (int i = 0; i <= id; i++) {
+                if (accepts(type, types[i])) {
+                    assignable[id][i >>> 6] |= 1L << i;
+                }
+            }
+            long[] comparable = Arrays.copyOf(this.comparable, words);
+            if (comparable(type)) {
+                comparable[id >>> 6] |= 1L << id;
+            }
+            type.id = id;
+            return new Lattice(types, assignable, comparable);
+        }
+
+    }
+
     static {
         registerType(Type.ANY);
         registerType(Type.NIL);
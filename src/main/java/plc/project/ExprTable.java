@@ -0,0 +1,96 @@
+package plc.project;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns expressions whose meaning does not depend on where they appear, so
+ * that structurally equal ones are one shared instance. Only literals, and
+ * groups and binary expressions of such expressions, are shared: the
+ * {@link Analyzer} gives them the same type wherever they are, so analyzing a
+ * shared node more than once is harmless, even on several threads at once,
+ * as their types are volatile. Accesses and calls resolve against a scope,
+ * and so are never shared while their analysis lives on the node.
+ *
+ * Expressions are keyed by their structure alone, never by {@code equals},
+ * which also compares types, so analyzing a shared node does not change its
+ * key. A table is safe to share between threads, such as the parsers of
+ * method bodies parsed in parallel or lazily, while its nodes are analyzed.
+ */
+final class ExprTable {
+
+    private final Map<Key, Ast.Expr> exprs = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the shared instance equal to the expression, if it can be shared,
+     * or else the expression itself. Its children must have been interned.
+     */
+    Ast.Expr intern(Ast.Expr expr) {
+        if (!isShareable(expr)) {
+            return expr;
+        }
+        Ast.Expr shared = exprs.putIfAbsent(new Key(expr), expr);
+        return shared != null ? shared : expr;
+    }
+
+    int size() {
+        return exprs.size();
+    }
+
+    private boolean isShareable(Ast.Expr expr) {
+        if (expr instanceof Ast.Expr.Literal) {
+            return true;
+        } else if (expr instanceof Ast.Expr.Group) {
+            return isShared(((Ast.Expr.Group) expr).getExpression());
+        } else if (expr instanceof Ast.Expr.Binary) {
+            return isShared(((Ast.Expr.Binary) expr).getLeft()) && isShared(((Ast.Expr.Binary) expr).getRight());
+        }
+        return false;
+    }
+
+    /** Returns whether the expression is an interned instance, in constant time. */
+    private boolean isShared(Ast.Expr expr) {
+        return exprs.get(new Key(expr)) == expr;
+    }
+
+    /**
+     * The structure of a shareable expression: a literal's value, or a group
+     * or binary expression's operator and children. Children are interned, so
+     * they are compared by identity.
+     */
+    private static final class Key {
+
+        private final Ast.Expr expr;
+
+        private Key(Ast.Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        public int hashCode() {
+            return expr.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key) || ((Key) obj).expr.getClass() != expr.getClass()) {
+                return false;
+            }
+            Ast.Expr other = ((Key) obj).expr;
+            if (expr instanceof Ast.Expr.Literal) {
+                return Objects.equals(((Ast.Expr.Literal) expr).getLiteral(), ((Ast.Expr.Literal) other).getLiteral());
+            } else if (expr instanceof Ast.Expr.Group) {
+                return ((Ast.Expr.Group) expr).getExpression() == ((Ast.Expr.Group) other).getExpression();
+            } else if (expr instanceof Ast.Expr.Binary) {
+                Ast.Expr.Binary binary = (Ast.Expr.Binary) expr;
+                return binary.getOperator().equals(((Ast.Expr.Binary) other).getOperator()) &&
+                        binary.getLeft() == ((Ast.Expr.Binary) other).getLeft() &&
+                        binary.getRight() == ((Ast.Expr.Binary) other).getRight();
+            }
+            return expr == other;
+        }
+
+    }
+
+}
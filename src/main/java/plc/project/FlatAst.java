@@ -0,0 +1,503 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A compact form of the AST for very large programs. A node is an {@code int}
+ * index into parallel primitive arrays rather than an object: its kind, a
+ * symbol or literal, an optional type name and a run of children in one shared
+ * {@code int} array. Names, type names and operators are symbols of a
+ * {@link SymbolTable}, and literal values are kept in one list. A node
+ * takes 21 bytes plus 4 per child, with no {@link Optional} or {@link List}
+ * objects, and all nodes sit in a few arrays instead of across the heap.
+ *
+ * Nodes are added children first, so a node's index is greater than those of
+ * all of its descendants. A visitor walks the tree from {@link #getRoot()}
+ * with {@link #getKind(int)}, {@link #getChildCount(int)} and
+ * {@link #getChild(int, int)}, without allocating. By kind, the children,
+ * {@link #getSplit(int)}, {@link #getSymbol(int)} and {@link #getType(int)} of
+ * a node are:
+ * <ul>
+ *     <li>{@link #SOURCE}: the fields, then the methods; the split is the number of fields.</li>
+ *     <li>{@link #FIELD}: the value, if any; the field name and type name.</li>
+ *     <li>{@link #METHOD}: the statements; the split is the number of parameters,
+ *     which are read with {@link #getParameter(int, int)} and
+ *     {@link #getParameterType(int, int)}; the method name and return type name.</li>
+ *     <li>{@link #EXPRESSION}, {@link #GROUP} and {@link #RETURN}: the expression.</li>
+ *     <li>{@link #DECLARATION}: the value, if any; the variable name and type name.</li>
+ *     <li>{@link #ASSIGNMENT}: the receiver and the value.</li>
+ *     <li>{@link #IF}: the condition, then the then statements, then the else
+ *     statements; the split is the number of then statements.</li>
+ *     <li>{@link #FOR}: the value, then the statements; the variable name.</li>
+ *     <li>{@link #WHILE}: the condition, then the statements.</li>
+ *     <li>{@link #LITERAL}: no children; the value is {@link #getLiteral(int)}.</li>
+ *     <li>{@link #BINARY}: the left and right operands; the operator.</li>
+ *     <li>{@link #ACCESS} and {@link #FUNCTION}: the receiver, if the split is
+ *     {@code 1}, then the arguments of a function; the name.</li>
+ * </ul>
+ *
+ * {@link #parse(Parser, SymbolTable)} builds the flat form from the parser one
+ * declaration at a time, so only one declaration exists as objects at once.
+ * Analysis results, such as {@link Ast.Field#getVariable()}, are not kept.
+ * Converting in either direction uses explicit stacks, so trees of any depth
+ * convert.
+ */
+public final class FlatAst {
+
+    public static final byte SOURCE = 0;
+    public static final byte FIELD = 1;
+    public static final byte METHOD = 2;
+    public static final byte EXPRESSION = 3;
+    public static final byte DECLARATION = 4;
+    public static final byte ASSIGNMENT = 5;
+    public static final byte IF = 6;
+    public static final byte FOR = 7;
+    public static final byte WHILE = 8;
+    public static final byte RETURN = 9;
+    public static final byte LITERAL = 10;
+    public static final byte GROUP = 11;
+    public static final byte BINARY = 12;
+    public static final byte ACCESS = 13;
+    public static final byte FUNCTION = 14;
+
+    private final SymbolTable symbols;
+    private final List<Object> literals = new ArrayList<>();
+    private final Builder builder = new Builder();
+
+    private byte[] kinds = new byte[256];
+    private int[] values = new int[256];
+    private int[] types = new int[256];
+    private int[] splits = new int[256];
+    private int[] starts = new int[256];
+    private int[] counts = new int[256];
+    private int size = 0;
+
+    private int[] children = new int[256];
+    private int childCount = 0;
+
+    /** Indices of nodes whose parent has not been added yet. */
+    private int[] stack = new int[64];
+    private int top = 0;
+
+    private int root = -1;
+
+    /**
+     * Creates an empty flat AST with names in the table. Accesses and calls
+     * converted back with {@link #toAst(int)} carry symbols of this table,
+     * so it should be the table of the {@link Scope} they are analyzed in.
+     */
+    public FlatAst(SymbolTable symbols) {
+        this.symbols = symbols;
+    }
+
+    /** Converts a source, with names in the table. */
+    public static FlatAst of(Ast.Source source, SymbolTable symbols) {
+        FlatAst ast = new FlatAst(symbols);
+        ast.root = ast.add(source);
+        return ast;
+    }
+
+    /**
+     * Parses a source into a flat AST, converting each field and method as
+     * soon as it is parsed. The symbol table should be the one the parser's
+     * tokens were lexed with, if any.
+     */
+    public static FlatAst parse(Parser parser, SymbolTable symbols) {
+        FlatAst ast = new FlatAst(symbols);
+        int[] fields = {0};
+        parser.parseSource(declaration -> {
+            ast.builder.walk(declaration);
+            if (declaration instanceof Ast.Field) {
+                fields[0]++;
+            }
+        });
+        ast.root = ast.node(SOURCE, -1, -1, fields[0], ast.top);
+        return ast;
+    }
+
+    /**
+     * Adds a node and all of its descendants, returning the node's index. The
+     * node becomes the root if it is a source.
+     */
+    public int add(Ast ast) {
+        int mark = top;
+        builder.walk(ast);
+        int node = stack[--top];
+        if (top != mark) {
+            throw new AssertionError("Unbalanced flat AST builder.");
+        }
+        if (ast instanceof Ast.Source) {
+            root = node;
+        }
+        return node;
+    }
+
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
+    /** Returns the number of nodes. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns the index of the source node, or {@code -1} if there is none. */
+    public int getRoot() {
+        return root;
+    }
+
+    public byte getKind(int node) {
+        check(node);
+        return kinds[node];
+    }
+
+    /** Returns the symbol of the node's name or operator, or {@code -1}. */
+    public int getSymbol(int node) {
+        check(node);
+        return kinds[node] == LITERAL ? -1 : values[node];
+    }
+
+    /** Returns the node's name or operator, or {@code null}. */
+    public String getName(int node) {
+        int symbol = getSymbol(node);
+        return symbol >= 0 ? symbols.getName(symbol) : null;
+    }
+
+    /** Returns the symbol of the node's type name, or {@code -1} if it has none. */
+    public int getType(int node) {
+        check(node);
+        return types[node];
+    }
+
+    public Object getLiteral(int node) {
+        if (getKind(node) != LITERAL) {
+            throw new IllegalArgumentException("Node " + node + " is not a literal.");
+        }
+        return literals.get(values[node]);
+    }
+
+    public int getSplit(int node) {
+        check(node);
+        return splits[node];
+    }
+
+    public int getChildCount(int node) {
+        check(node);
+        return counts[node];
+    }
+
+    public int getChild(int node, int index) {
+        if (index < 0 || index >= getChildCount(node)) {
+            throw new IndexOutOfBoundsException("Child " + index + " of node " + node + " with " + counts[node] + " children.");
+        }
+        return children[starts[node] + index];
+    }
+
+    /** Returns the symbol of a method's parameter name. */
+    public int getParameter(int node, int index) {
+        return children[parameters(node, index) + index];
+    }
+
+    /** Returns the symbol of a method's parameter type name. */
+    public int getParameterType(int node, int index) {
+        return children[parameters(node, index) + splits[node] + index];
+    }
+
+    /** Converts the source back to an {@link Ast.Source}. */
+    public Ast.Source toAst() {
+        if (root < 0) {
+            throw new IllegalStateException("The flat AST has no source.");
+        }
+        return (Ast.Source) toAst(root);
+    }
+
+    /**
+     * Converts a node and its descendants back to {@link Ast} objects, each
+     * node after its children, which wait on a stack for their parent.
+     */
+    public Ast toAst(int node) {
+        check(node);
+        // Each node comes before its descendants, and later children before earlier ones.
+        int[] order = new int[64];
+        int count = 0;
+        int[] pending = new int[64];
+        int waiting = 0;
+        pending[waiting++] = node;
+        while (waiting > 0) {
+            int next = pending[--waiting];
+            if (count == order.length) {
+                order = Arrays.copyOf(order, count * 2);
+            }
+            order[count++] = next;
+            if (waiting + counts[next] > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(pending.length * 2, waiting + counts[next]));
+            }
+            for (int i = 0; i < counts[next]; i++) {
+                pending[waiting++] = children[starts[next] + i];
+            }
+        }
+        List<Ast> converted = new ArrayList<>();
+        for (int i = count - 1; i >= 0; i--) {
+            int next = order[i];
+            List<Ast> asts = converted.subList(converted.size() - counts[next], converted.size());
+            Ast ast = convert(next, asts);
+            asts.clear();
+            converted.add(ast);
+        }
+        return converted.get(0);
+    }
+
+    /** Converts a node whose children have been converted. */
+    private Ast convert(int node, List<Ast> asts) {
+        switch (kinds[node]) {
+            case SOURCE:
+                return new Ast.Source(list(Ast.Field.class, asts, 0, splits[node]),
+                        list(Ast.Method.class, asts, splits[node], asts.size()));
+            case FIELD:
+                return new Ast.Field(getName(node), symbols.getName(types[node]), optional(asts, 0));
+            case METHOD:
+                List<String> parameters = new ArrayList<>();
+                List<String> parameterTypes = new ArrayList<>();
+                for (int i = 0; i < splits[node]; i++) {
+                    parameters.add(symbols.getName(getParameter(node, i)));
+                    parameterTypes.add(symbols.getName(getParameterType(node, i)));
+                }
+                return new Ast.Method(getName(node), parameters, parameterTypes, typeName(node),
+                        list(Ast.Stmt.class, asts, 0, asts.size()));
+            case EXPRESSION:
+                return new Ast.Stmt.Expression((Ast.Expr) asts.get(0));
+            case DECLARATION:
+                return new Ast.Stmt.Declaration(getName(node), typeName(node), optional(asts, 0));
+            case ASSIGNMENT:
+                return new Ast.Stmt.Assignment((Ast.Expr) asts.get(0), (Ast.Expr) asts.get(1));
+            case IF:
+                return new Ast.Stmt.If((Ast.Expr) asts.get(0), list(Ast.Stmt.class, asts, 1, 1 + splits[node]),
+                        list(Ast.Stmt.class, asts, 1 + splits[node], asts.size()));
+            case FOR:
+                return new Ast.Stmt.For(getName(node), (Ast.Expr) asts.get(0), list(Ast.Stmt.class, asts, 1, asts.size()));
+            case WHILE:
+                return new Ast.Stmt.While((Ast.Expr) asts.get(0), list(Ast.Stmt.class, asts, 1, asts.size()));
+            case RETURN:
+                return new Ast.Stmt.Return((Ast.Expr) asts.get(0));
+            case LITERAL:
+                return new Ast.Expr.Literal(getLiteral(node));
+            case GROUP:
+                return new Ast.Expr.Group((Ast.Expr) asts.get(0));
+            case BINARY:
+                return new Ast.Expr.Binary(getName(node), (Ast.Expr) asts.get(0), (Ast.Expr) asts.get(1));
+            case ACCESS:
+                return new Ast.Expr.Access(optional(asts, splits[node] - 1), getName(node), values[node]);
+            case FUNCTION:
+                return new Ast.Expr.Function(optional(asts, splits[node] - 1), getName(node), values[node],
+                        list(Ast.Expr.class, asts, splits[node], asts.size()));
+            default:
+                throw new AssertionError("Unknown flat AST kind: " + kinds[node] + ".");
+        }
+    }
+
+    /** Returns the expression at the index, or empty if there is no such child. */
+    private Optional<Ast.Expr> optional(List<Ast> asts, int index) {
+        return index >= 0 && index < asts.size() ? Optional.of((Ast.Expr) asts.get(index)) : Optional.empty();
+    }
+
+    private <T extends Ast> List<T> list(Class<T> type, List<Ast> asts, int from, int to) {
+        List<T> list = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            list.add(type.cast(asts.get(i)));
+        }
+        return list;
+    }
+
+    private Optional<String> typeName(int node) {
+        return types[node] >= 0 ? Optional.of(symbols.getName(types[node])) : Optional.empty();
+    }
+
+    private int parameters(int node, int index) {
+        if (getKind(node) != METHOD || index < 0 || index >= splits[node]) {
+            throw new IndexOutOfBoundsException("Parameter " + index + " of node " + node + ".");
+        }
+        return starts[node] - 2 * splits[node];
+    }
+
+    private void check(int node) {
+        if (node < 0 || node >= size) {
+            throw new IndexOutOfBoundsException("Node " + node + " is not in this flat AST.");
+        }
+    }
+
+    private void push(int value) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        stack[top++] = value;
+    }
+
+    private void child(int value) {
+        if (childCount == children.length) {
+            children = Arrays.copyOf(children, childCount * 2);
+        }
+        children[childCount++] = value;
+    }
+
+    /**
+     * Adds a node whose children are the last {@code count} entries of the
+     * stack, which are replaced by the new node.
+     */
+    private int node(byte kind, int value, int type, int split, int count) {
+        if (size == kinds.length) {
+            int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            types = Arrays.copyOf(types, capacity);
+            splits = Arrays.copyOf(splits, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        kinds[size] = kind;
+        values[size] = value;
+        types[size] = type;
+        splits[size] = split;
+        starts[size] = childCount;
+        counts[size] = count;
+        for (int i = top - count; i < top; i++) {
+            child(stack[i]);
+        }
+        top -= count;
+        push(size);
+        return size++;
+    }
+
+    private int intern(String name) {
+        return symbols.intern(name);
+    }
+
+    /**
+     * Adds each node as the walk leaves it, after its children, leaving its
+     * index on the stack.
+     */
+    private final class Builder extends AstWalker implements Ast.Visitor<Void> {
+
+        @Override
+        protected boolean enter(Ast ast) {
+            if (ast instanceof Ast.Method) {
+                // Parameters go on the stack as symbols, to end up just before the statements.
+                Ast.Method method = (Ast.Method) ast;
+                for (String parameter : method.getParameters()) {
+                    push(intern(parameter));
+                }
+                for (String type : method.getParameterTypeNames()) {
+                    push(intern(type));
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected void exit(Ast ast) {
+            ast.accept(this);
+        }
+
+        @Override
+        public Void visit(Ast.Source ast) {
+            node(SOURCE, -1, -1, ast.getFields().size(), ast.getFields().size() + ast.getMethods().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Field ast) {
+            node(FIELD, intern(ast.getName()), intern(ast.getTypeName()), 0, ast.getValue().isPresent() ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Method ast) {
+            int parameters = 2 * ast.getParameters().size();
+            int node = node(METHOD, intern(ast.getName()), ast.getReturnTypeName().map(FlatAst.this::intern).orElse(-1),
+                    ast.getParameters().size(), parameters + ast.getStatements().size());
+            starts[node] += parameters;
+            counts[node] -= parameters;
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Expression ast) {
+            node(EXPRESSION, -1, -1, 0, 1);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Declaration ast) {
+            node(DECLARATION, intern(ast.getName()), ast.getTypeName().map(FlatAst.this::intern).orElse(-1),
+                    0, ast.getValue().isPresent() ? 1 : 0);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Assignment ast) {
+            node(ASSIGNMENT, -1, -1, 0, 2);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.If ast) {
+            node(IF, -1, -1, ast.getThenStatements().size(), 1 + ast.getThenStatements().size() + ast.getElseStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.For ast) {
+            node(FOR, intern(ast.getName()), -1, 0, 1 + ast.getStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.While ast) {
+            node(WHILE, -1, -1, 0, 1 + ast.getStatements().size());
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Stmt.Return ast) {
+            node(RETURN, -1, -1, 0, 1);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Literal ast) {
+            literals.add(ast.getLiteral());
+            node(LITERAL, literals.size() - 1, -1, 0, 0);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Group ast) {
+            node(GROUP, -1, -1, 0, 1);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Binary ast) {
+            node(BINARY, intern(ast.getOperator()), -1, 0, 2);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Access ast) {
+            int receiver = ast.getReceiver().isPresent() ? 1 : 0;
+            node(ACCESS, intern(ast.getName()), -1, receiver, receiver);
+            return null;
+        }
+
+        @Override
+        public Void visit(Ast.Expr.Function ast) {
+            int receiver = ast.getReceiver().isPresent() ? 1 : 0;
+            node(FUNCTION, intern(ast.getName()), -1, receiver, receiver + ast.getArguments().size());
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,232 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the analysis of a source between edits, so that analyzing an edited
+ * source only checks the method bodies the edit can affect. It is meant for
+ * the sources of an {@link IncrementalParser}, which reuses every declaration
+ * outside an edit as the same instance.
+ *
+ * Analysis is in the two phases of {@link Analyzer#analyze(Ast.Source,
+ * java.util.concurrent.ForkJoinPool)}, with the same results and errors: the
+ * fields and the signatures of all methods are defined first, so a method
+ * may call any other. Each body records the names it looks up without a
+ * receiver. A body is checked again when its method is new, or when a field
+ * or method signature it looked up was added, removed or changed. Other
+ * bodies keep the results set on their nodes when they were last checked,
+ * including their error.
+ *
+ * Finding the changed declarations compares them by identity, and the fields
+ * are analyzed again whenever one of them changes, in a scope without the
+ * methods as before. If a field or signature is invalid, the error is thrown
+ * and the next source is analyzed from scratch.
+ */
+public final class IncrementalAnalyzer {
+
+    private final Scope parent;
+
+    /** Defines the fields and signatures that method bodies are checked against. */
+    private Analyzer analyzer;
+    private List<Ast.Field> fields = new ArrayList<>();
+    private Map<String, Environment.Variable> variables = new HashMap<>();
+    private Map<Ast.Method, Body> bodies = new IdentityHashMap<>();
+    private Map<String, Set<Ast.Method>> dependents = new HashMap<>();
+    private int errors = 0;
+    private int checked = 0;
+
+    public IncrementalAnalyzer(Scope parent) {
+        this.parent = parent;
+        this.analyzer = new Analyzer(parent);
+    }
+
+    /** Returns the number of method bodies checked by the last analysis. */
+    public int getChecked() {
+        return checked;
+    }
+
+    /**
+     * Analyzes the source, checking only the bodies affected by the changes
+     * since the source last analyzed, and throws its first error.
+     */
+    public void analyze(Ast.Source source) {
+        Analyzer.requireMain(source);
+        checked = 0;
+        try {
+            Set<String> changed = new HashSet<>();
+            if (!sameFields(source.getFields())) {
+                analyzeFields(source.getFields(), changed);
+            }
+            List<Ast.Method> added = defineMethods(source.getMethods(), changed);
+            Set<Ast.Method> affected = identitySet();
+            affected.addAll(added);
+            for (String name : changed) {
+                affected.addAll(dependents.getOrDefault(name, Collections.emptySet()));
+            }
+            for (Ast.Method method : affected) {
+                check(method);
+            }
+        } catch (RuntimeException e) {
+            reset();
+            throw e;
+        }
+        if (errors > 0) {
+            for (Ast.Method method : source.getMethods()) {
+                RuntimeException error = bodies.get(method).error;
+                if (error != null) {
+                    throw error;
+                }
+            }
+        }
+    }
+
+    private boolean sameFields(List<Ast.Field> fields) {
+        if (fields.size() != this.fields.size()) {
+            return false;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i) != this.fields.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Analyzes the fields again, in a scope of their own so they cannot see
+     * the methods, then redefines them for the bodies and adds the names of
+     * changed variables.
+     */
+    private void analyzeFields(List<Ast.Field> fields, Set<String> changed) {
+        Analyzer fieldAnalyzer = new Analyzer(parent);
+        Map<String, Environment.Variable> variables = new HashMap<>();
+        for (Ast.Field field : fields) {
+            fieldAnalyzer.visit(field);
+            variables.put(field.getName(), field.getVariable());
+        }
+        for (String name : this.variables.keySet()) {
+            analyzer.scope.undefineVariable(name);
+        }
+        for (Environment.Variable variable : variables.values()) {
+            analyzer.scope.defineVariable(variable.getName(), variable.getJvmName(), variable.getType(), Environment.NIL);
+        }
+        for (Map.Entry<String, Environment.Variable> entry : this.variables.entrySet()) {
+            if (!entry.getValue().equals(variables.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String name : variables.keySet()) {
+            if (!this.variables.containsKey(name)) {
+                changed.add(name);
+            }
+        }
+        this.fields = new ArrayList<>(fields);
+        this.variables = variables;
+    }
+
+    /**
+     * Undefines the functions of removed methods and defines those of added
+     * ones, adding the {@code name/arity} of changed functions and returning
+     * the added methods.
+     */
+    private List<Ast.Method> defineMethods(List<Ast.Method> methods, Set<String> changed) {
+        Set<Ast.Method> current = identitySet();
+        List<Ast.Method> added = new ArrayList<>();
+        for (Ast.Method method : methods) {
+            current.add(method);
+            if (!bodies.containsKey(method)) {
+                added.add(method);
+            }
+        }
+        Map<String, Environment.Function> removed = new HashMap<>();
+        if (bodies.size() + added.size() > methods.size()) {
+            for (Ast.Method method : new ArrayList<>(bodies.keySet())) {
+                if (!current.contains(method)) {
+                    Environment.Function function = bodies.remove(method).remove(method);
+                    String key = function.getName() + "/" + function.getParameterTypes().size();
+                    analyzer.scope.undefineFunction(function.getName(), function.getParameterTypes().size());
+                    removed.put(key, function);
+                }
+            }
+        }
+        for (Ast.Method method : added) {
+            Environment.Function function = analyzer.define(method);
+            String key = function.getName() + "/" + function.getParameterTypes().size();
+            if (!function.equals(removed.remove(key))) {
+                changed.add(key);
+            }
+            bodies.put(method, new Body(function));
+        }
+        changed.addAll(removed.keySet());
+        return added;
+    }
+
+    /** Checks the body of a method, recording its dependencies and error. */
+    private void check(Ast.Method method) {
+        Body body = bodies.get(method);
+        body.remove(method);
+        Set<String> dependencies = new HashSet<>();
+        try {
+            Analyzer.forBodies(analyzer.scope).analyzeBody(method, body.function, dependencies);
+        } catch (RuntimeException e) {
+            body.error = e;
+            errors++;
+        }
+        body.dependencies = dependencies;
+        for (String name : dependencies) {
+            dependents.computeIfAbsent(name, k -> identitySet()).add(method);
+        }
+        checked++;
+    }
+
+    private static Set<Ast.Method> identitySet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+    private void reset() {
+        analyzer = new Analyzer(parent);
+        fields = new ArrayList<>();
+        variables = new HashMap<>();
+        bodies = new IdentityHashMap<>();
+        dependents = new HashMap<>();
+        errors = 0;
+    }
+
+    /** The function, dependencies and error of a method body. */
+    private final class Body {
+
+        private final Environment.Function function;
+        private Set<String> dependencies = Collections.emptySet();
+        private RuntimeException error;
+
+        private Body(Environment.Function function) {
+            this.function = function;
+        }
+
+        /** Forgets the last check of the body, returning its function. */
+        private Environment.Function remove(Ast.Method method) {
+            for (String name : dependencies) {
+                Set<Ast.Method> methods = dependents.get(name);
+                methods.remove(method);
+                if (methods.isEmpty()) {
+                    dependents.remove(name);
+                }
+            }
+            dependencies = Collections.emptySet();
+            if (error != null) {
+                error = null;
+                errors--;
+            }
+            return function;
+        }
+
+    }
+
+}
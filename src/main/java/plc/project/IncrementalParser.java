@@ -0,0 +1,174 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps the text, tokens and AST of a source between edits, so that an edit
+ * only relexes and reparses the top-level declarations it touches. Every
+ * {@link Ast.Field} and {@link Ast.Method} outside the edit is reused as the
+ * same instance.
+ *
+ * An edit relexes the text between the last declaration that ends before it
+ * and the first declaration that starts after it. Parsing then resumes at the
+ * first touched declaration and stops as soon as it lines up with the start
+ * of an untouched declaration, so an edit that changes where declarations
+ * end (such as deleting an {@code END}) just reparses further. The result,
+ * including any {@link ParseException}, is always the same as parsing the
+ * edited text from scratch. If an edit fails, the previous state is kept.
+ */
+public final class IncrementalParser {
+
+    private String text;
+    private TokenBuffer tokens;
+    private List<Ast.Field> fields = new ArrayList<>();
+    private List<Ast.Method> methods = new ArrayList<>();
+    private Ast.Source source;
+
+    /** The token index just past each declaration, fields first and then methods. */
+    private int[] ends = new int[0];
+
+    public IncrementalParser(String text) {
+        reparse(text);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /** Returns the tokens of the text, which are updated in place by edits. */
+    public TokenBuffer getTokens() {
+        return tokens;
+    }
+
+    public Ast.Source getSource() {
+        return source;
+    }
+
+    /**
+     * Replaces {@code removed} characters at {@code offset} with
+     * {@code inserted} and returns the updated source.
+     */
+    public Ast.Source edit(int offset, int removed, String inserted) {
+        if (offset < 0 || removed < 0 || offset + removed > text.length()) {
+            throw new IndexOutOfBoundsException("Edit of " + removed + " characters at " + offset + " is outside the text.");
+        }
+        String edited = text.substring(0, offset) + inserted + text.substring(offset + removed);
+        int delta = inserted.length() - removed;
+        int count = ends.length;
+
+        // Declarations before first and from next on are untouched by the edit.
+        int first = 0;
+        while (first < count && charEnd(first) < offset) {
+            first++;
+        }
+        int next = first;
+        while (next < count && charStart(next) <= offset + removed) {
+            next++;
+        }
+        int from = tokenStart(first);
+        int to = next < count ? tokenStart(next) : tokens.size();
+        int windowStart = first > 0 ? charEnd(first - 1) : 0;
+        int windowEnd = next < count ? charStart(next) : text.length();
+
+        SourceText edit = SourceText.of(edited);
+        TokenBuffer window;
+        try {
+            window = new Lexer(edit, windowStart, windowEnd + delta).lexBuffer();
+        } catch (RuntimeException e) {
+            // A literal left open by the edit may only close past the window.
+            return reparse(edited);
+        }
+        // The buffer is updated in place, so keep the replaced tokens to undo it.
+        TokenBuffer replaced = new TokenBuffer(tokens.getSource(), to - from);
+        for (int i = from; i < to; i++) {
+            replaced.add(tokens.getKind(i), tokens.getStart(i), tokens.getLength(i));
+        }
+        SourceText previous = tokens.getSource();
+        tokens.splice(edit, from, to, window, delta);
+        try {
+            parse(tokens, first, next, window.size() - (to - from));
+        } catch (RuntimeException e) {
+            tokens.splice(previous, from, from + window.size(), replaced, -delta);
+            throw e;
+        }
+        text = edited;
+        return source;
+    }
+
+    /** Lexes and parses the text from scratch. */
+    private Ast.Source reparse(String text) {
+        TokenBuffer tokens = new Lexer(text).lexBuffer();
+        parse(tokens, 0, ends.length, 0);
+        this.text = text;
+        return source;
+    }
+
+    /**
+     * Parses declarations of the new tokens, keeping the first {@code first}
+     * declarations and reusing old declarations from {@code next} on once
+     * parsing lines up with one of them. Tokens of reused declarations have
+     * moved by {@code tokenDelta}.
+     */
+    private void parse(TokenBuffer tokens, int first, int next, int tokenDelta) {
+        int fieldCount = fields.size();
+        List<Ast.Field> fields = new ArrayList<>(this.fields.subList(0, Math.min(first, fieldCount)));
+        List<Ast.Method> methods = new ArrayList<>(this.methods.subList(0, Math.max(first - fieldCount, 0)));
+        int[] ends = Arrays.copyOf(this.ends, Math.max(this.ends.length, 16));
+        int count = first;
+        int position = tokenStart(first);
+        boolean inMethods = first > fieldCount;
+
+        while (true) {
+            while (next < this.ends.length && tokenStart(next) + tokenDelta < position) {
+                next++;
+            }
+            if (next < this.ends.length && tokenStart(next) + tokenDelta == position && (!inMethods || next >= fieldCount)) {
+                fields.addAll(this.fields.subList(Math.min(next, fieldCount), fieldCount));
+                methods.addAll(this.methods.subList(Math.max(next - fieldCount, 0), this.methods.size()));
+                ends = Arrays.copyOf(ends, Math.max(ends.length, count + this.ends.length - next));
+                for (int i = next; i < this.ends.length; i++) {
+                    ends[count++] = this.ends[i] + tokenDelta;
+                }
+                break;
+            }
+            int kind = position < tokens.size() ? tokens.getKind(position) : -1;
+            Parser parser = new Parser(tokens, position + 1);
+            if (kind == Token.Kind.LET && !inMethods) {
+                fields.add(parser.parseField());
+            } else if (kind == Token.Kind.DEF) {
+                inMethods = true;
+                methods.add(parser.parseMethod());
+            } else {
+                break;
+            }
+            position = parser.getPosition();
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            ends[count++] = position;
+        }
+
+        this.tokens = tokens;
+        this.fields = fields;
+        this.methods = methods;
+        this.ends = Arrays.copyOf(ends, count);
+        this.source = new Ast.Source(fields, methods);
+    }
+
+    /** Returns the index of the first token of a declaration. */
+    private int tokenStart(int declaration) {
+        return declaration > 0 ? ends[declaration - 1] : 0;
+    }
+
+    private int charStart(int declaration) {
+        return tokens.getStart(tokenStart(declaration));
+    }
+
+    private int charEnd(int declaration) {
+        int last = ends[declaration] - 1;
+        return tokens.getStart(last) + tokens.getLength(last);
+    }
+
+}
@@ -0,0 +1,347 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The lexer works through the input one token at a time. Every character is
+ * classified through a lookup table rather than a chain of regex or range
+ * checks, and tokens are produced on demand so the {@link Parser} can pull them
+ * through its lookahead window without a full {@code List<Token>} ever being
+ * built. {@link #lex()} is still available when the whole list is wanted.
+ *
+ * Keywords and known operators are resolved to their {@link Token.Kind} here,
+ * once, so the parser never has to compare literals.
+ *
+ * Lexing errors are reported the same way as parse errors, as a
+ * {@link RuntimeException} wrapping a {@link ParseException}.
+ */
+public final class Lexer implements Iterator<Token> {
+
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte LETTER = 2;
+    private static final byte DIGIT = 3;
+    private static final byte SIGN = 4;
+    private static final byte CHARACTER_QUOTE = 5;
+    private static final byte STRING_QUOTE = 6;
+    private static final byte COMPARISON = 7;
+    private static final byte DOUBLED = 8;
+
+    /** Inputs are only split for {@link #lexParallel} into chunks at least this long. */
+    private static final int MIN_CHUNK = 1 << 20;
+
+    /** Character classes for ASCII; anything above 127 is {@link #OTHER}. */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c : " \b\n\r\t".toCharArray()) {
+            CLASSES[c] = WHITESPACE;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            CLASSES[c] = LETTER;
+            CLASSES[c + 'a' - 'A'] = LETTER;
+        }
+        CLASSES['_'] = LETTER;
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT;
+        }
+        CLASSES['+'] = SIGN;
+        CLASSES['-'] = SIGN;
+        CLASSES['\''] = CHARACTER_QUOTE;
+        CLASSES['"'] = STRING_QUOTE;
+        for (char c : "<>!=".toCharArray()) {
+            CLASSES[c] = COMPARISON;
+        }
+        CLASSES['&'] = DOUBLED;
+        CLASSES['|'] = DOUBLED;
+    }
+
+    private final SourceText text;
+    private final int end;
+    private int index;
+
+    public Lexer(String input) {
+        this(SourceText.of(input));
+    }
+
+    public Lexer(SourceText text) {
+        this(text, 0, text.length());
+    }
+
+    public Lexer(char[] chars, int start, int end) {
+        this(SourceText.of(chars), start, end);
+    }
+
+    /**
+     * Lexes the region {@code [start, end)} of {@code text}. Token indices are
+     * offsets into the whole text, not into the region.
+     */
+    public Lexer(SourceText text, int start, int end) {
+        this.text = text;
+        this.index = start;
+        this.end = end;
+    }
+
+    /** Lexes the remaining input into a list of tokens. */
+    public List<Token> lex() {
+        List<Token> tokens = new ArrayList<>();
+        while (hasNext()) {
+            tokens.add(lexToken());
+        }
+        return tokens;
+    }
+
+    /**
+     * Lexes the remaining input into a {@link TokenBuffer} over the same
+     * characters, without creating a {@link Token} or literal per token.
+     */
+    public TokenBuffer lexBuffer() {
+        return lexBuffer(null);
+    }
+
+    /**
+     * Lexes the remaining input into a {@link TokenBuffer} that interns every
+     * identifier into the given table as it is scanned.
+     */
+    public TokenBuffer lexBuffer(SymbolTable symbols) {
+        TokenBuffer buffer = new TokenBuffer(text, Math.max((end - index) / 4, 16), symbols);
+        while (hasNext()) {
+            int start = index;
+            int kind = scan();
+            buffer.add(kind, start, index - start);
+        }
+        return buffer;
+    }
+
+    /**
+     * Lexes the input on the common fork-join pool; see
+     * {@link #lexParallel(SourceText, ForkJoinPool)}.
+     */
+    public static TokenBuffer lexParallel(String input) {
+        return lexParallel(SourceText.of(input), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lexes the input in chunks on the given pool and splices the results into
+     * one buffer. Chunks are split just after a line break: character and
+     * string literals cannot contain a raw line break, so the split can never
+     * land inside a valid literal and every chunk starts on a token boundary.
+     * Since chunks lex the same text, token indices are already absolute.
+     *
+     * If any chunk fails, the error from the earliest chunk is thrown, which is
+     * the same error sequential lexing would have reported.
+     */
+    public static TokenBuffer lexParallel(SourceText text, ForkJoinPool pool) {
+        int chunks = Math.min(pool.getParallelism() * 4, text.length() / MIN_CHUNK);
+        if (chunks <= 1) {
+            return new Lexer(text).lexBuffer();
+        }
+        List<Callable<TokenBuffer>> tasks = new ArrayList<>();
+        RuntimeException[] errors = new RuntimeException[chunks];
+        int start = 0;
+        for (int i = 1; i <= chunks && start < text.length(); i++) {
+            int from = start;
+            int end = i == chunks ? text.length()
+                    : lineBoundary(text, Math.max(start, (int) ((long) text.length() * i / chunks)));
+            int chunk = tasks.size();
+            tasks.add(() -> {
+                try {
+                    return new Lexer(text, from, end).lexBuffer();
+                } catch (RuntimeException e) {
+                    errors[chunk] = e;
+                    return null;
+                }
+            });
+            start = end;
+        }
+        List<TokenBuffer> buffers = new ArrayList<>();
+        int size = 0;
+        for (Future<TokenBuffer> future : pool.invokeAll(tasks)) {
+            try {
+                buffers.add(future.get());
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        for (int i = 0; i < buffers.size(); i++) {
+            if (errors[i] != null) {
+                throw errors[i];
+            }
+            size += buffers.get(i).size();
+        }
+        TokenBuffer result = new TokenBuffer(text, size);
+        for (TokenBuffer buffer : buffers) {
+            result.addAll(buffer);
+        }
+        return result;
+    }
+
+    /** Returns the index just after the first line break at or after {@code index}. */
+    private static int lineBoundary(SourceText text, int index) {
+        while (index < text.length() && text.charAt(index) != '\n' && text.charAt(index) != '\r') {
+            index++;
+        }
+        return Math.min(index + 1, text.length());
+    }
+
+    /**
+     * Returns true if there is another token in the input, skipping any
+     * whitespace in front of it.
+     */
+    @Override
+    public boolean hasNext() {
+        while (index < end && classOf(text.charAt(index)) == WHITESPACE) {
+            index++;
+        }
+        return index < end;
+    }
+
+    @Override
+    public Token next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return lexToken();
+    }
+
+    /**
+     * Lexes the token starting at the current position, which must not be
+     * whitespace (see {@link #hasNext()}).
+     */
+    public Token lexToken() {
+        int start = index;
+        int kind = scan();
+        return new Token(Token.Kind.typeOf(kind), kind, text.slice(start, index), start);
+    }
+
+    /** Advances over one token and returns its kind. */
+    private int scan() {
+        int start = index;
+        char c = text.charAt(index);
+        switch (classOf(c)) {
+            case LETTER:
+                return lexIdentifier();
+            case DIGIT:
+                return lexNumber();
+            case SIGN:
+                if (index + 1 < end && classOf(text.charAt(index + 1)) == DIGIT) {
+                    index++;
+                    return lexNumber();
+                }
+                index++;
+                return Token.Kind.operator(text, start, 1);
+            case CHARACTER_QUOTE:
+                return lexCharacter();
+            case STRING_QUOTE:
+                return lexString();
+            case COMPARISON:
+                index++;
+                if (index < end && text.charAt(index) == '=') {
+                    index++;
+                }
+                return Token.Kind.operator(text, start, index - start);
+            case DOUBLED:
+                index++;
+                if (index < end && text.charAt(index) == c) {
+                    index++;
+                }
+                return Token.Kind.OPERATOR;
+            default:
+                index = Math.min(text.nextCharacter(index), end);
+                return Token.Kind.operator(text, start, index - start);
+        }
+    }
+
+    private int lexIdentifier() {
+        int start = index++;
+        while (index < end) {
+            byte type = classOf(text.charAt(index));
+            if (type != LETTER && type != DIGIT && text.charAt(index) != '-') {
+                break;
+            }
+            index++;
+        }
+        return Token.Kind.keyword(text, start, index - start);
+    }
+
+    /** Lexes a number, starting after any leading sign. */
+    private int lexNumber() {
+        skipDigits();
+        if (index + 1 < end && text.charAt(index) == '.' && classOf(text.charAt(index + 1)) == DIGIT) {
+            index++;
+            skipDigits();
+            return Token.Kind.DECIMAL;
+        }
+        return Token.Kind.INTEGER;
+    }
+
+    private void skipDigits() {
+        while (index < end && classOf(text.charAt(index)) == DIGIT) {
+            index++;
+        }
+    }
+
+    private int lexCharacter() {
+        int start = index++;
+        if (index >= end || text.charAt(index) == '\'' || text.charAt(index) == '\n' || text.charAt(index) == '\r') {
+            throw error("Invalid character literal.", index);
+        }
+        int content = index;
+        lexCharacterContent();
+        // A supplementary character is a surrogate pair in chars, which leaves
+        // the literal unterminated, so its four UTF-8 bytes must as well.
+        if (index >= end || text.charAt(index) != '\'' || index - content == 4) {
+            throw error("Unterminated character literal.", start);
+        }
+        index++;
+        return Token.Kind.CHARACTER;
+    }
+
+    private int lexString() {
+        int start = index++;
+        while (index < end && text.charAt(index) != '"') {
+            if (text.charAt(index) == '\n' || text.charAt(index) == '\r') {
+                throw error("Unterminated string literal.", start);
+            }
+            lexCharacterContent();
+        }
+        if (index >= end) {
+            throw error("Unterminated string literal.", start);
+        }
+        index++;
+        return Token.Kind.STRING;
+    }
+
+    /**
+     * Lexes a single literal character or escape inside quotes. A character
+     * may span several code units in a UTF-8 source.
+     */
+    private void lexCharacterContent() {
+        if (text.charAt(index) == '\\') {
+            index++;
+            if (index >= end || "bnrt'\"\\".indexOf(text.charAt(index)) < 0) {
+                throw error("Invalid escape sequence.", index);
+            }
+        }
+        index = Math.min(text.nextCharacter(index), end);
+    }
+
+    private static byte classOf(char c) {
+        return c < 128 ? CLASSES[c] : OTHER;
+    }
+
+    private static RuntimeException error(String message, int index) {
+        return new RuntimeException(new ParseException(message, index));
+    }
+
+}
@@ -0,0 +1,125 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Converts numeric literals for one parse. Literals with at most 18 digits are
+ * accumulated in a {@code long} straight from the source text and deduplicated,
+ * so repeated literals share one {@link BigInteger} or {@link BigDecimal} and
+ * no intermediate string is created. Longer literals fall back to parsing the
+ * text with arbitrary precision.
+ *
+ * Values are the same as {@code new BigInteger(literal)} and
+ * {@code new BigDecimal(literal)}, including the scale of decimals.
+ */
+final class LiteralPool {
+
+    /** Any number with this many digits fits in a {@code long}. */
+    private static final int MAX_DIGITS = 18;
+
+    /** The scale stored for integers, which decimals never have. */
+    private static final int INTEGER = -1;
+
+    private long[] keys = new long[64];
+    private int[] scales = new int[64];
+    private Object[] values = new Object[64];
+    private int size = 0;
+
+    /** Returns the integer literal in {@code [start, end)} of the text. */
+    BigInteger integer(CharSequence text, int start, int end) {
+        int index = skipSign(text, start);
+        if (end - index > MAX_DIGITS) {
+            return new BigInteger(text.subSequence(start, end).toString());
+        }
+        long value = 0;
+        for (int i = index; i < end; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        if (text.charAt(start) == '-') {
+            value = -value;
+        }
+        Object pooled = get(value, INTEGER);
+        if (pooled == null) {
+            pooled = put(value, INTEGER, BigInteger.valueOf(value));
+        }
+        return (BigInteger) pooled;
+    }
+
+    /** Returns the decimal literal in {@code [start, end)} of the text. */
+    BigDecimal decimal(CharSequence text, int start, int end) {
+        int index = skipSign(text, start);
+        if (end - index - 1 > MAX_DIGITS) {
+            return new BigDecimal(text.subSequence(start, end).toString());
+        }
+        long unscaled = 0;
+        int scale = 0;
+        for (int i = index; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                scale = end - i - 1;
+            } else {
+                unscaled = unscaled * 10 + (c - '0');
+            }
+        }
+        if (text.charAt(start) == '-') {
+            unscaled = -unscaled;
+        }
+        Object pooled = get(unscaled, scale);
+        if (pooled == null) {
+            pooled = put(unscaled, scale, BigDecimal.valueOf(unscaled, scale));
+        }
+        return (BigDecimal) pooled;
+    }
+
+    private static int skipSign(CharSequence text, int start) {
+        char c = text.charAt(start);
+        return c == '-' || c == '+' ? start + 1 : start;
+    }
+
+    private Object get(long key, int scale) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key, scale) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key && scales[slot] == scale) {
+                return values[slot];
+            }
+        }
+        return null;
+    }
+
+    private Object put(long key, int scale, Object value) {
+        if ((size + 1) * 2 > keys.length) {
+            long[] oldKeys = keys;
+            int[] oldScales = scales;
+            Object[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            scales = new int[oldKeys.length * 2];
+            values = new Object[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    insert(oldKeys[i], oldScales[i], oldValues[i]);
+                }
+            }
+        }
+        insert(key, scale, value);
+        size++;
+        return value;
+    }
+
+    private void insert(long key, int scale, Object value) {
+        int mask = keys.length - 1;
+        int slot = hash(key, scale) & mask;
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        scales[slot] = scale;
+        values[slot] = value;
+    }
+
+    private static int hash(long key, int scale) {
+        long hash = (key + scale) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32);
+    }
+
+}
@@ -9,6 +9,15 @@ public final class ParseException extends Exception {
         this.index = index;
     }
 
+    /**
+     * Creates an exception without a stack trace, which is cheap enough to
+     * collect by the thousand as a diagnostic.
+     */
+    ParseException(String message, int index, boolean stackTrace) {
+        super(message + " at index " + index, null, false, stackTrace);
+        this.index = index;
+    }
+
     public int getIndex() {
         return index;
     }
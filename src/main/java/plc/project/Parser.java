@@ -1,131 +1,509 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public final class Parser {
 
+    /**
+     * Precedence of each binary operator by {@link Token.Kind}, from loosest to
+     * tightest, or {@code 0} for tokens that are not binary operators.
+     */
+    private static final byte[] PRECEDENCE = new byte[Token.Kind.COUNT];
+
+    static {
+        binary(1, Token.Kind.AND, Token.Kind.OR);
+        binary(2, Token.Kind.LESS, Token.Kind.LESS_EQUAL, Token.Kind.GREATER, Token.Kind.GREATER_EQUAL,
+                Token.Kind.EQUAL, Token.Kind.NOT_EQUAL);
+        binary(3, Token.Kind.PLUS, Token.Kind.MINUS);
+        binary(4, Token.Kind.TIMES, Token.Kind.DIVIDE);
+    }
+
+    private static void binary(int precedence, int... kinds) {
+        for (int kind : kinds) {
+            PRECEDENCE[kind] = (byte) precedence;
+        }
+    }
+
+    /** Methods are only parsed in parallel in runs of at least this many. */
+    private static final int MIN_METHODS = 64;
+
     private final TokenStream tokens;
+    private final LiteralPool literals = new LiteralPool();
+    private boolean iterative = false;
+    private boolean lazy = false;
+    private ExprTable exprs = null;
+
+    /** The syntax errors found so far when recovering, otherwise {@code null}. */
+    private List<ParseException> diagnostics = null;
 
     public Parser(List<Token> tokens) {
-        this.tokens = new TokenStream(tokens);
+        this.tokens = new ListTokenStream(tokens);
+    }
+
+    /**
+     * Creates a parser that pulls tokens from the lexer as it needs them, so
+     * only a few tokens are held at any one time.
+     */
+    public Parser(Lexer lexer) {
+        this.tokens = new LexerTokenStream(lexer);
+    }
+
+    /**
+     * Creates a parser that reads token types and offsets straight out of the
+     * buffer, creating literal strings only for the AST nodes that keep them.
+     * If the buffer interns identifiers, accesses and calls also get their
+     * symbol.
+     */
+    public Parser(TokenBuffer tokens) {
+        this(tokens, 0);
+    }
+
+    /** Creates a parser over the buffer starting at the given token. */
+    Parser(TokenBuffer tokens, int position) {
+        this.tokens = new BufferTokenStream(tokens, position);
+    }
+
+    /**
+     * Switches expressions to {@link #parseExpressionIteratively()}, for
+     * generated code with very long operator chains or deeply nested groups
+     * and calls. Statements are still parsed recursively.
+     */
+    public void setIterative(boolean iterative) {
+        this.iterative = iterative;
+    }
+
+    /**
+     * Only records where each method body is in the buffer, leaving it to be
+     * parsed the first time {@link Ast.Method#getStatements()} is called, so
+     * unused methods cost little more than a scan of their tokens. Syntax
+     * errors in a body are only thrown then, from {@code getStatements()}.
+     * The buffer must not change while bodies are unparsed. Parsers over a
+     * {@link List} or {@link Lexer} always parse bodies.
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
+    /**
+     * Makes {@link #parseSource()} recover from syntax errors instead of
+     * throwing the first one. Each error is added to {@link #getDiagnostics()}
+     * and parsing resumes at the next statement, after a {@code ;} or at an
+     * {@code END}, {@code ELSE} or {@code LET}, or at the next top-level
+     * {@code LET} or {@code DEF}. The source returned has every field and
+     * method that could be parsed, and a method keeps the statements that
+     * could be parsed. The first diagnostic is always the exception a parse
+     * without recovery throws.
+     *
+     * Diagnostics, and the exceptions used to unwind to a point to recover
+     * at, have no stack trace. Method bodies are never parsed lazily, and
+     * {@link #parseSource(ForkJoinPool)} parses sequentially. Errors of the
+     * {@link Lexer} of a parser created over one still end the parse.
+     */
+    public void setRecovering(boolean recovering) {
+        diagnostics = recovering ? new ArrayList<>() : null;
+    }
+
+    /** Returns the syntax errors found by a recovering parse, in source order. */
+    public List<ParseException> getDiagnostics() {
+        return diagnostics == null ? Collections.emptyList() : Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * Makes structurally equal literals, and groups and binary expressions of
+     * them, one shared instance, such as the many copies of {@code 1} or
+     * {@code (2 * 60)} in generated code. Shared nodes appear in several
+     * places of the tree, so the tree must not rely on node identity. The
+     * instances are shared by everything this parser parses, including lazy
+     * and parallel method bodies.
+     */
+    public void setSharing(boolean sharing) {
+        exprs = sharing ? new ExprTable() : null;
+    }
+
+    /** Creates a parser over the buffer at the position, in the same modes. */
+    private Parser fork(TokenBuffer buffer, int position) {
+        Parser parser = new Parser(buffer, position);
+        parser.iterative = iterative;
+        parser.lazy = lazy;
+        parser.exprs = exprs;
+        return parser;
+    }
+
+    /** Returns the number of tokens consumed so far, or the current token index. */
+    int getPosition() {
+        return tokens.getPosition();
     }
 
     /** Parses the {@code source} rule. */
     public Ast.Source parseSource() {
         List<Ast.Field> fields = new ArrayList<>();
         List<Ast.Method> methods = new ArrayList<>();
+        parseSource(declaration -> {
+            if (declaration instanceof Ast.Field) {
+                fields.add((Ast.Field) declaration);
+            } else {
+                methods.add((Ast.Method) declaration);
+            }
+        });
+        return new Ast.Source(fields, methods);
+    }
 
-        while (match("LET")) {
+    /**
+     * Parses the {@code source} rule, passing each {@link Ast.Field} and then
+     * each {@link Ast.Method} to the consumer as soon as it is parsed, so a
+     * later phase can start on them before the rest is parsed. If a syntax
+     * error is thrown, the declarations before it have been passed on.
+     */
+    public void parseSource(Consumer<Ast> declarations) {
+        if (diagnostics != null) {
+            parseSourceRecovering(declarations);
+            return;
+        }
+        while (match(Token.Kind.LET)) {
+            declarations.accept(parseField());
+        }
+
+        while (match(Token.Kind.DEF)) {
+            declarations.accept(parseMethod());
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule, recovering from errors in a field at the
+     * next {@code ;}, {@code LET} or {@code DEF} and from errors in a method
+     * at the next {@code DEF}.
+     */
+    private void parseSourceRecovering(Consumer<Ast> declarations) {
+        boolean methods = false;
+
+        while (tokens.has(0)) {
+            boolean field = !methods && peek(Token.Kind.LET);
+            if (!field && !peek(Token.Kind.DEF)) {
+                break;
+            }
+            tokens.advance();
+            methods |= !field;
+            try {
+                declarations.accept(field ? parseField() : parseMethod());
+            } catch (Failure e) {
+                report(e);
+                while (tokens.has(0) && !peek(Token.Kind.DEF) && !(field && peek(Token.Kind.LET))) {
+                    tokens.advance();
+                    if (field && tokens.getKind(-1) == Token.Kind.SEMICOLON) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the {@code source} rule with methods parsed in parallel on the
+     * pool. Fields are parsed first, then a prescan finds the top-level
+     * {@code DEF} tokens outside of any {@code DO ... END} nesting. Each task
+     * parses a run of consecutive methods with a parser over the whole buffer,
+     * so token indices, and therefore {@link ParseException} indices, are the
+     * same as {@link #parseSource()}.
+     *
+     * The prescan is only a guess. A task stops as soon as one of its methods
+     * does not end where the next one was expected to start. Methods are then
+     * assembled in source order, and from the first such mismatch the rest is
+     * parsed sequentially. The first error in source order is rethrown, which
+     * is the error a sequential parse reports. Parsers over a {@link List} or
+     * {@link Lexer} are always parsed sequentially.
+     */
+    public Ast.Source parseSource(ForkJoinPool pool) {
+        if (!(tokens instanceof BufferTokenStream) || diagnostics != null) {
+            return parseSource();
+        }
+        List<Ast.Field> fields = new ArrayList<>();
+        while (match(Token.Kind.LET)) {
             fields.add(parseField());
         }
+        TokenBuffer buffer = ((BufferTokenStream) tokens).tokens;
+        int[] starts = findMethods(buffer, tokens.getPosition());
+        int chunks = starts.length == 0 ? 0 : Math.max(Math.min(pool.getParallelism() * 4, starts.length / MIN_METHODS), 1);
 
-        while (match("DEF")) {
-            methods.add(parseMethod());
+        List<Callable<List<Ast.Method>>> tasks = new ArrayList<>();
+        RuntimeException[] errors = new RuntimeException[chunks];
+        int[] ends = new int[chunks];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = (int) ((long) starts.length * chunk / chunks);
+            int to = (int) ((long) starts.length * (chunk + 1) / chunks);
+            int index = chunk;
+            tasks.add(() -> {
+                List<Ast.Method> methods = new ArrayList<>(to - from);
+                Parser parser = fork(buffer, starts[from]);
+                try {
+                    for (int i = from; i < to && parser.getPosition() == starts[i] && parser.match(Token.Kind.DEF); i++) {
+                        methods.add(parser.parseMethod());
+                    }
+                } catch (RuntimeException e) {
+                    errors[index] = e;
+                }
+                ends[index] = parser.getPosition();
+                return methods;
+            });
+        }
+
+        List<Ast.Method> methods = new ArrayList<>(starts.length);
+        int position = tokens.getPosition();
+        List<Future<List<Ast.Method>>> futures = pool.invokeAll(tasks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            int from = (int) ((long) starts.length * chunk / chunks);
+            int to = (int) ((long) starts.length * (chunk + 1) / chunks);
+            if (starts[from] != position) {
+                break; // the previous chunk did not end where this one starts
+            }
+            List<Ast.Method> parsed;
+            try {
+                parsed = futures.get(chunk).get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            methods.addAll(parsed);
+            if (errors[chunk] != null) {
+                throw errors[chunk];
+            }
+            position = ends[chunk];
+            if (parsed.size() < to - from) {
+                break;
+            }
         }
 
+        // Sequential from wherever the prescan went wrong, or past the last method.
+        Parser parser = fork(buffer, position);
+        while (parser.match(Token.Kind.DEF)) {
+            methods.add(parser.parseMethod());
+        }
+        ((BufferTokenStream) tokens).index = parser.getPosition();
         return new Ast.Source(fields, methods);
     }
 
+    /**
+     * Returns the indices of {@code DEF} tokens from {@code start} on that are
+     * outside of any {@code DO ... END} nesting.
+     */
+    private static int[] findMethods(TokenBuffer buffer, int start) {
+        int[] starts = new int[16];
+        int count = 0;
+        int depth = 0;
+        for (int i = start; i < buffer.size() && depth >= 0; i++) {
+            int kind = buffer.getKind(i);
+            if (kind == Token.Kind.DO) {
+                depth++;
+            } else if (kind == Token.Kind.END) {
+                depth--;
+            } else if (kind == Token.Kind.DEF && depth == 0) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = i;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
     /** Parses the {@code field} rule. */
     public Ast.Field parseField() {
-        String name = require(Token.Type.IDENTIFIER, "Expected identifier after LET.").getLiteral();
+        require(Token.Type.IDENTIFIER, "Expected identifier after LET.");
+        String name = tokens.getLiteral(-1);
         Optional<Ast.Expr> value = Optional.empty();
 
-        if (match("=")) {
+        if (match(Token.Kind.ASSIGN)) {
             value = Optional.of(parseExpression());
         }
 
-        require(";", "Expected ';' after field declaration.");
+        require(Token.Kind.SEMICOLON, "Expected ';' after field declaration.");
         return new Ast.Field(name, value);
     }
 
     /** Parses the {@code method} rule. */
     public Ast.Method parseMethod() {
-        String name = require(Token.Type.IDENTIFIER, "Expected identifier after DEF.").getLiteral();
-        require("(", "Expected '(' after method name.");
+        require(Token.Type.IDENTIFIER, "Expected identifier after DEF.");
+        String name = tokens.getLiteral(-1);
+        require(Token.Kind.LEFT_PAREN, "Expected '(' after method name.");
         List<String> parameters = new ArrayList<>();
 
-        if (!peek(")")) {
+        if (!peek(Token.Kind.RIGHT_PAREN)) {
             do {
-                parameters.add(require(Token.Type.IDENTIFIER, "Expected parameter name.").getLiteral());
-            } while (match(","));
+                require(Token.Type.IDENTIFIER, "Expected parameter name.");
+                parameters.add(tokens.getLiteral(-1));
+            } while (match(Token.Kind.COMMA));
         }
 
-        require(")", "Expected ')' after parameters.");
-        require("DO", "Expected 'DO' before method body.");
+        require(Token.Kind.RIGHT_PAREN, "Expected ')' after parameters.");
+        require(Token.Kind.DO, "Expected 'DO' before method body.");
+        if (lazy && diagnostics == null && tokens instanceof BufferTokenStream) {
+            TokenBuffer buffer = ((BufferTokenStream) tokens).tokens;
+            int start = tokens.getPosition();
+            int end = findEnd(buffer, start);
+            if (end >= 0) {
+                ((BufferTokenStream) tokens).index = end + 1;
+                Parser parser = fork(buffer, start);
+                return new Ast.Method(name, parameters, () -> parser.parseBody(end));
+            }
+            // Without a matching END the body is parsed now, to report its error.
+        }
         List<Ast.Stmt> statements = new ArrayList<>();
 
-        while (!match("END")) {
-            statements.add(parseStatement());
+        while (!match(Token.Kind.END)) {
+            parseStatement(statements);
         }
 
         return new Ast.Method(name, parameters, statements);
     }
 
+    /**
+     * Parses a method body that was skipped by a lazy parse, after its
+     * {@code DO}, which must end with the {@code END} at {@code end}.
+     */
+    private List<Ast.Stmt> parseBody(int end) {
+        List<Ast.Stmt> statements = new ArrayList<>();
+        while (!match(Token.Kind.END)) {
+            statements.add(parseStatement());
+        }
+        if (tokens.getPosition() != end + 1) {
+            throw error("Method body does not end at its matching 'END'.", tokens.getIndex(-1));
+        }
+        return statements;
+    }
+
+    /**
+     * Returns the index of the {@code END} matching a {@code DO} just before
+     * {@code start}, by {@code DO}/{@code END} nesting, or {@code -1}.
+     */
+    private static int findEnd(TokenBuffer buffer, int start) {
+        int depth = 1;
+        for (int i = start; i < buffer.size(); i++) {
+            int kind = buffer.getKind(i);
+            if (kind == Token.Kind.DO) {
+                depth++;
+            } else if (kind == Token.Kind.END && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /** Parses the {@code statement} rule. */
     public Ast.Stmt parseStatement() {
-        if (match("LET")) {
-            return parseDeclaration();
-        } else if (match("IF")) {
-            return parseIf();
-        } else if (match("WHILE")) {
-            return parseWhile();
-        } else if (match("RETURN")) {
-            return parseReturn();
-        } else {
-            Ast.Expr expression = parseExpression();
-            if (match("=")) {
-                Ast.Expr value = parseExpression();
-                require(";", "Expected ';' after assignment.");
-                return new Ast.Stmt.Assignment(expression, value);
+        switch (peekKind()) {
+            case Token.Kind.LET:
+                tokens.advance();
+                return parseDeclaration();
+            case Token.Kind.IF:
+                tokens.advance();
+                return parseIf();
+            case Token.Kind.WHILE:
+                tokens.advance();
+                return parseWhile();
+            case Token.Kind.RETURN:
+                tokens.advance();
+                return parseReturn();
+            default:
+                Ast.Expr expression = parseExpression();
+                if (match(Token.Kind.ASSIGN)) {
+                    Ast.Expr value = parseExpression();
+                    require(Token.Kind.SEMICOLON, "Expected ';' after assignment.");
+                    return new Ast.Stmt.Assignment(expression, value);
+                }
+                require(Token.Kind.SEMICOLON, "Expected ';' after expression.");
+                return new Ast.Stmt.Expression(expression);
+        }
+    }
+
+    /**
+     * Parses a statement of a block into the list. When recovering, a
+     * statement with an error is left out and parsing resumes at the next
+     * statement of the block, skipping any nested {@code DO ... END} blocks
+     * in between. The error is rethrown if the block cannot be resumed since
+     * the input ends or the next method starts first.
+     */
+    private void parseStatement(List<Ast.Stmt> statements) {
+        if (diagnostics == null) {
+            statements.add(parseStatement());
+            return;
+        }
+        int start = tokens.getPosition();
+        try {
+            statements.add(parseStatement());
+        } catch (Failure e) {
+            report(e);
+            if (tokens.getPosition() == start && tokens.has(0)) {
+                tokens.advance();
+            }
+            int depth = 0;
+            while (tokens.has(0) && !peek(Token.Kind.DEF)) {
+                int kind = tokens.getKind(0);
+                if (depth == 0 && (kind == Token.Kind.END || kind == Token.Kind.ELSE || kind == Token.Kind.LET)) {
+                    return;
+                }
+                tokens.advance();
+                if (kind == Token.Kind.DO) {
+                    depth++;
+                } else if (kind == Token.Kind.END && --depth == 0 || kind == Token.Kind.SEMICOLON && depth == 0) {
+                    return;
+                }
             }
-            require(";", "Expected ';' after expression.");
-            return new Ast.Stmt.Expression(expression);
+            throw e;
         }
     }
 
     /** Parses a declaration statement from the {@code statement} rule. */
     private Ast.Stmt parseDeclaration() {
-        String name = require(Token.Type.IDENTIFIER, "Expected identifier after LET.").getLiteral();
+        require(Token.Type.IDENTIFIER, "Expected identifier after LET.");
+        String name = tokens.getLiteral(-1);
         Optional<Ast.Expr> value = Optional.empty();
-        if (match("=")) {
+        if (match(Token.Kind.ASSIGN)) {
             value = Optional.of(parseExpression());
         }
-        require(";", "Expected ';' after declaration.");
+        require(Token.Kind.SEMICOLON, "Expected ';' after declaration.");
         return new Ast.Stmt.Declaration(name, value);
     }
 
     /** Parses the {@code if} statement rule. */
     private Ast.Stmt parseIf() {
         Ast.Expr condition = parseExpression();
-        require("DO", "Expected 'DO' after if condition.");
+        require(Token.Kind.DO, "Expected 'DO' after if condition.");
         List<Ast.Stmt> thenStatements = new ArrayList<>();
 
-        while (!peek("ELSE") && !peek("END")) {
-            thenStatements.add(parseStatement());
+        while (!peek(Token.Kind.ELSE) && !peek(Token.Kind.END)) {
+            parseStatement(thenStatements);
         }
 
         List<Ast.Stmt> elseStatements = new ArrayList<>();
-        if (match("ELSE")) {
-            while (!peek("END")) {
-                elseStatements.add(parseStatement());
+        if (match(Token.Kind.ELSE)) {
+            while (!peek(Token.Kind.END)) {
+                parseStatement(elseStatements);
             }
         }
 
-        require("END", "Expected 'END' after if statement.");
+        require(Token.Kind.END, "Expected 'END' after if statement.");
         return new Ast.Stmt.If(condition, thenStatements, elseStatements);
     }
 
     /** Parses the {@code while} statement rule. */
     private Ast.Stmt parseWhile() {
         Ast.Expr condition = parseExpression();
-        require("DO", "Expected 'DO' after while condition.");
+        require(Token.Kind.DO, "Expected 'DO' after while condition.");
         List<Ast.Stmt> statements = new ArrayList<>();
 
-        while (!match("END")) {
-            statements.add(parseStatement());
+        while (!match(Token.Kind.END)) {
+            parseStatement(statements);
         }
 
         return new Ast.Stmt.While(condition, statements);
@@ -134,160 +512,616 @@ public final class Parser {
     /** Parses the {@code return} statement rule. */
     private Ast.Stmt parseReturn() {
         Ast.Expr value = parseExpression();
-        require(";", "Expected ';' after return value.");
+        require(Token.Kind.SEMICOLON, "Expected ';' after return value.");
         return new Ast.Stmt.Return(value);
     }
 
     /** Parses an {@code expression}. */
     public Ast.Expr parseExpression() {
-        return parseLogicalExpression();
-    }
-
-    private Ast.Expr parseLogicalExpression() {
-        Ast.Expr left = parseComparisonExpression();
-        while (match("AND") || match("OR")) {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expr right = parseComparisonExpression();
-            left = new Ast.Expr.Binary(operator, left, right);
-        }
-        return left;
+        return iterative ? parseExpressionIteratively() : parseBinaryExpression(1);
     }
 
-    private Ast.Expr parseComparisonExpression() {
-        Ast.Expr left = parseAdditiveExpression();
-        while (match("<") || match("<=") || match(">") || match(">=") || match("==") || match("!=")) {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expr right = parseAdditiveExpression();
-            left = new Ast.Expr.Binary(operator, left, right);
+    /**
+     * Parses binary operators by precedence climbing: an operand followed by
+     * any operators binding at least as tightly as {@code precedence}, each
+     * with a right operand of strictly tighter operators. All operators are
+     * left associative, so this builds the same trees as one method per level
+     * without descending through every level for every operand.
+     */
+    private Ast.Expr parseBinaryExpression(int precedence) {
+        Ast.Expr left = parseSecondaryExpression();
+        while (true) {
+            int kind = peekKind();
+            int binding = kind >= 0 ? PRECEDENCE[kind] : 0;
+            if (binding < precedence) {
+                return left;
+            }
+            tokens.advance();
+            Ast.Expr right = parseBinaryExpression(binding + 1);
+            left = share(new Ast.Expr.Binary(Token.Kind.literal(kind), left, right));
         }
-        return left;
     }
 
-    private Ast.Expr parseAdditiveExpression() {
-        Ast.Expr left = parseMultiplicativeExpression();
-        while (match("+") || match("-")) {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expr right = parseMultiplicativeExpression();
-            left = new Ast.Expr.Binary(operator, left, right);
+    /**
+     * Parses an {@code expression} without recursion. The operands and
+     * operators of each level are kept on explicit stacks, and every open group
+     * or argument list is a {@link Frame}. Long chains and deep nesting only use
+     * heap, in time linear in the number of tokens. The trees and errors are
+     * the same as {@link #parseBinaryExpression(int)}, since tokens are
+     * consumed in the same order and reduced with the same precedence.
+     */
+    private Ast.Expr parseExpressionIteratively() {
+        List<Ast.Expr> operands = new ArrayList<>();
+        int[] operators = new int[16];
+        int size = 0;
+        List<Frame> frames = new ArrayList<>();
+        Ast.Expr operand = null; // the last complete operand, or null if one is expected
+        while (true) {
+            if (operand == null) {
+                int kind = peekKind();
+                if (!startsExpression(kind)) {
+                    throw error("Expected an expression.", errorIndex());
+                }
+                tokens.advance();
+                if (kind == Token.Kind.LEFT_PAREN) {
+                    frames.add(new Frame(null, null, -1, size, operands.size()));
+                    continue;
+                }
+                operand = parseLiteral(kind);
+                if (operand == null) {
+                    operand = parseName(Optional.empty(), frames, size, operands.size());
+                    if (operand == null) {
+                        continue;
+                    }
+                }
+            }
+            if (match(Token.Kind.DOT)) {
+                require(Token.Type.IDENTIFIER, "Expected field or method name after '.'.");
+                operand = parseName(Optional.of(operand), frames, size, operands.size());
+                continue;
+            }
+            int kind = peekKind();
+            int binding = kind >= 0 ? PRECEDENCE[kind] : 0;
+            int base = frames.isEmpty() ? 0 : frames.get(frames.size() - 1).operators;
+            while (size > base && PRECEDENCE[operators[size - 1]] >= Math.max(binding, 1)) {
+                int operator = operators[--size];
+                operand = share(new Ast.Expr.Binary(Token.Kind.literal(operator), operands.remove(operands.size() - 1), operand));
+            }
+            if (binding > 0) {
+                tokens.advance();
+                if (size == operators.length) {
+                    operators = Arrays.copyOf(operators, size * 2);
+                }
+                operators[size++] = kind;
+                operands.add(operand);
+                operand = null;
+            } else if (frames.isEmpty()) {
+                return operand;
+            } else {
+                Frame frame = frames.get(frames.size() - 1);
+                if (frame.name == null) {
+                    require(Token.Kind.RIGHT_PAREN, "Expected ')' after expression.");
+                    frames.remove(frames.size() - 1);
+                    operand = share(new Ast.Expr.Group(operand));
+                } else if (match(Token.Kind.COMMA)) {
+                    operands.add(operand);
+                    operand = null;
+                } else {
+                    require(Token.Kind.RIGHT_PAREN, "Expected ')' after arguments.");
+                    frames.remove(frames.size() - 1);
+                    List<Ast.Expr> previous = operands.subList(frame.operands, operands.size());
+                    List<Ast.Expr> arguments = new ArrayList<>(previous);
+                    arguments.add(operand);
+                    previous.clear();
+                    operand = new Ast.Expr.Function(frame.receiver, frame.name, frame.symbol, arguments);
+                }
+            }
         }
-        return left;
     }
 
-    private Ast.Expr parseMultiplicativeExpression() {
-        Ast.Expr left = parseSecondaryExpression();
-        while (match("*") || match("/")) {
-            String operator = tokens.get(-1).getLiteral();
-            Ast.Expr right = parseSecondaryExpression();
-            left = new Ast.Expr.Binary(operator, left, right);
+    /**
+     * Continues an iterative parse after the name of an access or call. Returns
+     * the access or argumentless call, or {@code null} after opening a frame
+     * for the arguments.
+     */
+    private Ast.Expr parseName(Optional<Ast.Expr> receiver, List<Frame> frames, int operators, int operands) {
+        String name = tokens.getLiteral(-1);
+        int symbol = tokens.getSymbol(-1);
+        if (!match(Token.Kind.LEFT_PAREN)) {
+            return new Ast.Expr.Access(receiver, name, symbol);
+        } else if (!peek(Token.Kind.RIGHT_PAREN)) {
+            frames.add(new Frame(receiver, name, symbol, operators, operands));
+            return null;
         }
-        return left;
+        tokens.advance();
+        return new Ast.Expr.Function(receiver, name, symbol, new ArrayList<>());
     }
 
     private Ast.Expr parseSecondaryExpression() {
         Ast.Expr primary = parsePrimaryExpression();
-        while (match(".")) {
-            String name = require(Token.Type.IDENTIFIER, "Expected field or method name after '.'.").getLiteral();
-            if (match("(")) {
+        while (match(Token.Kind.DOT)) {
+            require(Token.Type.IDENTIFIER, "Expected field or method name after '.'.");
+            String name = tokens.getLiteral(-1);
+            int symbol = tokens.getSymbol(-1);
+            if (match(Token.Kind.LEFT_PAREN)) {
                 List<Ast.Expr> arguments = new ArrayList<>();
-                if (!peek(")")) {
+                if (!peek(Token.Kind.RIGHT_PAREN)) {
                     do {
                         arguments.add(parseExpression());
-                    } while (match(","));
+                    } while (match(Token.Kind.COMMA));
                 }
-                require(")", "Expected ')' after arguments.");
-                primary = new Ast.Expr.Function(Optional.of(primary), name, arguments);
+                require(Token.Kind.RIGHT_PAREN, "Expected ')' after arguments.");
+                primary = new Ast.Expr.Function(Optional.of(primary), name, symbol, arguments);
             } else {
-                primary = new Ast.Expr.Access(Optional.of(primary), name);
+                primary = new Ast.Expr.Access(Optional.of(primary), name, symbol);
             }
         }
         return primary;
     }
 
     private Ast.Expr parsePrimaryExpression() {
-        if (match("NIL")) {
-            return new Ast.Expr.Literal(null);
-        } else if (match("TRUE")) {
-            return new Ast.Expr.Literal(Boolean.TRUE);
-        } else if (match("FALSE")) {
-            return new Ast.Expr.Literal(Boolean.FALSE);
-        } else if (match(Token.Type.INTEGER)) {
-            return new Ast.Expr.Literal(new java.math.BigInteger(tokens.get(-1).getLiteral()));
-        } else if (match(Token.Type.DECIMAL)) {
-            return new Ast.Expr.Literal(new java.math.BigDecimal(tokens.get(-1).getLiteral()));
-        } else if (match(Token.Type.CHARACTER)) {
-            return new Ast.Expr.Literal(tokens.get(-1).getLiteral().charAt(1)); // Removing surrounding single quotes
-        } else if (match(Token.Type.STRING)) {
-            String literal = tokens.get(-1).getLiteral();
-            return new Ast.Expr.Literal(literal.substring(1, literal.length() - 1).replace("\\n", "\n")
-                    .replace("\\t", "\t").replace("\\r", "\r").replace("\\b", "\b"));
-        } else if (match("(")) {
-            Ast.Expr expression = parseExpression();
-            require(")", "Expected ')' after expression.");
-            return new Ast.Expr.Group(expression);
-        } else if (match(Token.Type.IDENTIFIER)) {
-            String name = tokens.get(-1).getLiteral();
-            if (match("(")) {
-                List<Ast.Expr> arguments = new ArrayList<>();
-                if (!peek(")")) {
-                    do {
-                        arguments.add(parseExpression());
-                    } while (match(","));
+        int kind = peekKind();
+        if (!startsExpression(kind)) {
+            throw error("Expected an expression.", errorIndex());
+        }
+        tokens.advance();
+        switch (kind) {
+            case Token.Kind.LEFT_PAREN:
+                Ast.Expr expression = parseExpression();
+                require(Token.Kind.RIGHT_PAREN, "Expected ')' after expression.");
+                return share(new Ast.Expr.Group(expression));
+            default:
+                Ast.Expr literal = parseLiteral(kind);
+                if (literal != null) {
+                    return literal;
                 }
-                require(")", "Expected ')' after arguments.");
-                return new Ast.Expr.Function(Optional.empty(), name, arguments);
+                String name = tokens.getLiteral(-1);
+                int symbol = tokens.getSymbol(-1);
+                if (match(Token.Kind.LEFT_PAREN)) {
+                    List<Ast.Expr> arguments = new ArrayList<>();
+                    if (!peek(Token.Kind.RIGHT_PAREN)) {
+                        do {
+                            arguments.add(parseExpression());
+                        } while (match(Token.Kind.COMMA));
+                    }
+                    require(Token.Kind.RIGHT_PAREN, "Expected ')' after arguments.");
+                    return new Ast.Expr.Function(Optional.empty(), name, symbol, arguments);
+                }
+                return new Ast.Expr.Access(Optional.empty(), name, symbol);
+        }
+    }
+
+    /** Returns the shared instance of the expression when sharing. */
+    private Ast.Expr share(Ast.Expr expr) {
+        return exprs != null ? exprs.intern(expr) : expr;
+    }
+
+    /**
+     * Returns whether a token of the kind can start a primary expression,
+     * which is checked before it is consumed so that a recovering parse
+     * resumes at the offending token.
+     */
+    private static boolean startsExpression(int kind) {
+        return kind >= 0 && (Token.Kind.typeOf(kind) != Token.Type.OPERATOR || kind == Token.Kind.LEFT_PAREN);
+    }
+
+    /**
+     * Returns the literal for the token just consumed, or {@code null} if the
+     * token is not a literal.
+     */
+    private Ast.Expr parseLiteral(int kind) {
+        switch (kind) {
+            case Token.Kind.NIL:
+                return share(new Ast.Expr.Literal(null));
+            case Token.Kind.TRUE:
+                return share(new Ast.Expr.Literal(Boolean.TRUE));
+            case Token.Kind.FALSE:
+                return share(new Ast.Expr.Literal(Boolean.FALSE));
+            case Token.Kind.INTEGER:
+                return share(new Ast.Expr.Literal(literals.integer(tokens.getText(-1), tokens.getTextStart(-1),
+                        tokens.getTextStart(-1) + tokens.getLength(-1))));
+            case Token.Kind.DECIMAL:
+                return share(new Ast.Expr.Literal(literals.decimal(tokens.getText(-1), tokens.getTextStart(-1),
+                        tokens.getTextStart(-1) + tokens.getLength(-1))));
+            case Token.Kind.CHARACTER:
+                return share(new Ast.Expr.Literal(parseCharacter(tokens.getText(-1), tokens.getTextStart(-1),
+                        tokens.getTextStart(-1) + tokens.getLength(-1))));
+            case Token.Kind.STRING:
+                return share(new Ast.Expr.Literal(parseString(tokens.getText(-1), tokens.getTextStart(-1),
+                        tokens.getTextStart(-1) + tokens.getLength(-1))));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decodes a character literal in {@code [start, end)} of the text, quotes
+     * included.
+     */
+    private static char parseCharacter(CharSequence text, int start, int end) {
+        char c = text.charAt(start + 1);
+        if (c == '\\') {
+            return unescape(text.charAt(start + 2));
+        }
+        // Decodes the character if the text is UTF-8 rather than chars.
+        return c < 128 ? c : text.subSequence(start + 1, end - 1).toString().charAt(0);
+    }
+
+    /**
+     * Decodes a string literal in {@code [start, end)} of the text, quotes
+     * included, in a single scan. Without escapes this is just the slice
+     * between the quotes.
+     */
+    private static String parseString(CharSequence text, int start, int end) {
+        int first = start + 1;
+        int last = end - 1;
+        int escape = first;
+        while (escape < last && text.charAt(escape) != '\\') {
+            escape++;
+        }
+        if (escape == last) {
+            return text.subSequence(first, last).toString();
+        }
+        StringBuilder builder = new StringBuilder(last - first);
+        int run = first;
+        while (escape < last) {
+            append(builder, text, run, escape);
+            builder.append(unescape(text.charAt(escape + 1)));
+            run = escape + 2;
+            escape = run;
+            while (escape < last && text.charAt(escape) != '\\') {
+                escape++;
             }
-            return new Ast.Expr.Access(Optional.empty(), name);
         }
-        throw new RuntimeException(new ParseException("Expected an expression.",
-                tokens.has(0) ? tokens.get(0).getIndex()
-                        : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length()));
+        append(builder, text, run, last);
+        return builder.toString();
+    }
+
+    /** Appends {@code [start, end)} of the text, decoding it if it is a UTF-8 source. */
+    private static void append(StringBuilder builder, CharSequence text, int start, int end) {
+        if (text instanceof SourceText) {
+            ((SourceText) text).appendTo(builder, start, end);
+        } else {
+            builder.append(text, start, end);
+        }
+    }
+
+    /** Returns the character for an escape, which the lexer has already validated. */
+    private static char unescape(char escape) {
+        switch (escape) {
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return escape; // ', " and \ stand for themselves
+        }
     }
 
     // Helper Methods for Parsing
 
-    private Token require(Object expected, String message) {
-        if (!match(expected)) {
-            throw new RuntimeException(new ParseException(message,
-                    tokens.has(0) ? tokens.get(0).getIndex()
-                            : tokens.get(-1).getIndex() + tokens.get(-1).getLiteral().length()));
+    /**
+     * Creates the exception for a syntax error, which has no stack trace when
+     * recovering since it is only thrown to unwind to a point to recover at.
+     */
+    private RuntimeException error(String message, int index) {
+        if (diagnostics != null) {
+            return new Failure(new ParseException(message, index, false));
+        }
+        return new RuntimeException(new ParseException(message, index));
+    }
+
+    /**
+     * Adds the error to the diagnostics, unless it is at or before the last
+     * one, as happens when an error is rethrown to recover further out.
+     */
+    private void report(Failure failure) {
+        ParseException exception = (ParseException) failure.getCause();
+        int last = diagnostics.size() - 1;
+        if (last < 0 || diagnostics.get(last).getIndex() < exception.getIndex()) {
+            diagnostics.add(exception);
+        }
+    }
+
+    private void require(int kind, String message) {
+        if (!match(kind)) {
+            throw error(message, errorIndex());
+        }
+    }
+
+    private void require(Token.Type type, String message) {
+        if (!match(type)) {
+            throw error(message, errorIndex());
+        }
+    }
+
+    /**
+     * Returns the index of the next token, or the index just past the last
+     * token at the end of input ({@code 0} if there are no tokens at all).
+     */
+    private int errorIndex() {
+        if (tokens.has(0)) {
+            return tokens.getIndex(0);
         }
-        return tokens.get(-1);
+        return tokens.has(-1) ? tokens.getIndex(-1) + tokens.getLength(-1) : 0;
     }
 
-    private boolean match(Object... patterns) {
-        if (peek(patterns)) {
+    private boolean match(int kind) {
+        if (peek(kind)) {
             tokens.advance();
             return true;
         }
         return false;
     }
 
-    private boolean peek(Object... patterns) {
-        for (int i = 0; i < patterns.length; i++) {
-            if (!tokens.has(i) || !patterns[i].equals(tokens.get(i).getLiteral()) && patterns[i] != tokens.get(i).getType()) {
-                return false;
-            }
+    private boolean match(Token.Type type) {
+        if (peek(type)) {
+            tokens.advance();
+            return true;
         }
-        return true;
+        return false;
+    }
+
+    private boolean peek(int kind) {
+        return tokens.has(0) && tokens.getKind(0) == kind;
+    }
+
+    /** Peeks by type, which also matches keywords as identifiers. */
+    private boolean peek(Token.Type type) {
+        return tokens.has(0) && Token.Kind.typeOf(tokens.getKind(0)) == type;
     }
 
-    private static final class TokenStream {
+    /** Returns the kind of the next token, or {@code -1} at the end of input. */
+    private int peekKind() {
+        return tokens.has(0) ? tokens.getKind(0) : -1;
+    }
+
+    /** An open group ({@code name == null}) or argument list of an iterative parse. */
+    private static final class Frame {
+
+        private final Optional<Ast.Expr> receiver;
+        private final String name;
+        private final int symbol;
+
+        /** The sizes of the operator and operand stacks when the frame was opened. */
+        private final int operators;
+        private final int operands;
+
+        private Frame(Optional<Ast.Expr> receiver, String name, int symbol, int operators, int operands) {
+            this.receiver = receiver;
+            this.name = name;
+            this.symbol = symbol;
+            this.operators = operators;
+            this.operands = operands;
+        }
+
+    }
+
+    private static abstract class TokenStream {
+
+        public abstract boolean has(int offset);
+
+        public abstract int getKind(int offset);
+
+        public abstract String getLiteral(int offset);
+
+        public abstract int getIndex(int offset);
+
+        public abstract int getLength(int offset);
+
+        /** Returns the interned symbol of an identifier, or {@code -1}. */
+        public abstract int getSymbol(int offset);
+
+        /**
+         * Returns text containing the token, starting at
+         * {@link #getTextStart(int)}, without creating its literal.
+         */
+        public abstract CharSequence getText(int offset);
+
+        public abstract int getTextStart(int offset);
+
+        public abstract int getPosition();
+
+        public abstract void advance();
+
+    }
+
+    /**
+     * Base for streams that hold {@link Token} objects, which already carry
+     * their literal.
+     */
+    private static abstract class ObjectTokenStream extends TokenStream {
+
+        protected abstract Token get(int offset);
+
+        @Override
+        public int getKind(int offset) {
+            return get(offset).getKind();
+        }
+
+        @Override
+        public String getLiteral(int offset) {
+            return get(offset).getLiteral();
+        }
+
+        @Override
+        public int getIndex(int offset) {
+            return get(offset).getIndex();
+        }
+
+        @Override
+        public int getLength(int offset) {
+            return get(offset).getLiteral().length();
+        }
+
+        @Override
+        public int getSymbol(int offset) {
+            return -1;
+        }
+
+        @Override
+        public CharSequence getText(int offset) {
+            return get(offset).getLiteral();
+        }
+
+        @Override
+        public int getTextStart(int offset) {
+            return 0;
+        }
+
+    }
+
+    private static final class ListTokenStream extends ObjectTokenStream {
 
         private final List<Token> tokens;
         private int index = 0;
 
-        public TokenStream(List<Token> tokens) {
+        public ListTokenStream(List<Token> tokens) {
             this.tokens = tokens;
         }
 
+        @Override
         public boolean has(int offset) {
             return index + offset >= 0 && index + offset < tokens.size();
         }
 
-        public Token get(int offset) {
+        @Override
+        protected Token get(int offset) {
             return tokens.get(index + offset);
         }
 
+        @Override
+        public int getPosition() {
+            return index;
+        }
+
+        @Override
+        public void advance() {
+            index++;
+        }
+
+    }
+
+    /**
+     * Keeps a small ring buffer over a token iterator: the previous token for
+     * {@code get(-1)} and however many tokens of lookahead have been asked for.
+     */
+    private static final class LexerTokenStream extends ObjectTokenStream {
+
+        private static final int WINDOW = 8;
+
+        private final Iterator<Token> source;
+        private final Token[] window = new Token[WINDOW];
+        private int index = 0;
+        private int filled = 0;
+
+        public LexerTokenStream(Iterator<Token> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            int position = index + offset;
+            while (position >= filled && source.hasNext()) {
+                if (filled - index + 2 > WINDOW) {
+                    throw new IllegalStateException("Lookahead of " + offset + " exceeds the token window.");
+                }
+                window[filled++ % WINDOW] = source.next();
+            }
+            return position >= 0 && position >= filled - WINDOW && position < filled;
+        }
+
+        @Override
+        protected Token get(int offset) {
+            if (!has(offset)) {
+                throw new IndexOutOfBoundsException("Token offset " + offset + " is outside the token window.");
+            }
+            return window[(index + offset) % WINDOW];
+        }
+
+        @Override
+        public int getPosition() {
+            return index;
+        }
+
+        @Override
+        public void advance() {
+            index++;
+        }
+
+    }
+
+    /** A syntax error thrown by a recovering parser, without a stack trace. */
+    private static final class Failure extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Failure(ParseException cause) {
+            super(cause.toString(), cause, false, false);
+        }
+
+    }
+
+    private static final class BufferTokenStream extends TokenStream {
+
+        private final TokenBuffer tokens;
+        private int index;
+
+        public BufferTokenStream(TokenBuffer tokens, int index) {
+            this.tokens = tokens;
+            this.index = index;
+        }
+
+        @Override
+        public boolean has(int offset) {
+            return index + offset >= 0 && index + offset < tokens.size();
+        }
+
+        @Override
+        public int getKind(int offset) {
+            return tokens.getKind(index + offset);
+        }
+
+        @Override
+        public String getLiteral(int offset) {
+            return tokens.getLiteral(index + offset);
+        }
+
+        @Override
+        public int getIndex(int offset) {
+            return tokens.getStart(index + offset);
+        }
+
+        @Override
+        public int getLength(int offset) {
+            return tokens.getLength(index + offset);
+        }
+
+        @Override
+        public int getSymbol(int offset) {
+            return tokens.getSymbol(index + offset);
+        }
+
+        @Override
+        public CharSequence getText(int offset) {
+            return tokens.getSource();
+        }
+
+        @Override
+        public int getTextStart(int offset) {
+            return tokens.getStart(index + offset);
+        }
+
+        @Override
+        public int getPosition() {
+            return index;
+        }
+
+        @Override
         public void advance() {
             index++;
         }
@@ -6,20 +6,62 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
+/**
+ * A scope of variables and functions. A scope may share a {@link SymbolTable}
+ * with the AST it is used for, in which case definitions are also indexed by
+ * symbol, and {@link #lookupVariable(int)} and
+ * {@link #lookupFunction(int, int)} find them without hashing a name or
+ * building a {@code name/arity} key. Child scopes inherit the parent's table.
+ *
+ * Scopes are not thread-safe, but once nothing more is defined in a scope it
+ * may be looked up from many threads, each defining in its own child scopes
+ * made by {@link #concurrentChild}. Those only read the table, which is not
+ * thread-safe either, and index a name by symbol only if it is already there.
+ * The scopes of the builtin {@link Environment.Type}s are complete once the
+ * class is initialized.
+ */
 public final class Scope {
 
     private final Scope parent;
+    private final SymbolTable symbols;
+    private final boolean interning;
     private final Map<String, Environment.Variable> variables = new HashMap<>();
     private final Map<String, Environment.Function> functions = new HashMap<>();
+    private SymbolMap<Environment.Variable> variableSymbols;
+    private SymbolMap<Environment.Function> functionSymbols;
 
     public Scope(Scope parent) {
+        this(parent, parent != null ? parent.symbols : null);
+    }
+
+    public Scope(Scope parent, SymbolTable symbols) {
+        this(parent, symbols, parent == null || parent.symbols != symbols || parent.interning);
+    }
+
+    private Scope(Scope parent, SymbolTable symbols, boolean interning) {
         this.parent = parent;
+        this.symbols = symbols;
+        this.interning = interning;
+    }
+
+    /**
+     * Returns a child scope that never adds to the table, nor do its own
+     * children, so that children of one scope may define on many threads at
+     * once while nothing else interns into the table.
+     */
+    static Scope concurrentChild(Scope parent) {
+        return new Scope(parent, parent.symbols, false);
     }
 
     public Scope getParent() {
         return parent;
     }
 
+    /** Returns the table symbols of this scope come from, or {@code null}. */
+    public SymbolTable getSymbols() {
+        return symbols;
+    }
+
     public void defineVariable(String name, Environment.PlcObject value) {
         defineVariable(name, name, Environment.Type.ANY, value);
     }
@@ -30,18 +72,51 @@ public final class Scope {
         } else {
             Environment.Variable variable = new Environment.Variable(name, jvmName, type, value);
             variables.put(variable.getName(), variable);
-            return variables.get(name);
+            if (symbols != null) {
+                if (variableSymbols == null) {
+                    variableSymbols = new SymbolMap<>();
+                }
+                int symbol = symbol(name);
+                if (symbol >= 0) {
+                    variableSymbols.put(symbol, variable);
+                }
+            }
+            return variable;
+        }
+    }
+
+    /** Removes a variable defined in this scope, if there is one. */
+    void undefineVariable(String name) {
+        if (variables.remove(name) != null && variableSymbols != null) {
+            variableSymbols.remove(symbols.find(name));
         }
     }
 
     public Environment.Variable lookupVariable(String name) {
-        if (variables.containsKey(name)) {
-            return variables.get(name);
-        } else if (parent != null) {
-            return parent.lookupVariable(name);
-        } else {
-            throw new RuntimeException("The variable " + name + " is not defined in this scope.");
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.variables.containsKey(name)) {
+                return scope.variables.get(name);
+            }
+        }
+        throw new RuntimeException("The variable " + name + " is not defined in this scope.");
+    }
+
+    /**
+     * Looks up a variable by the symbol of its name in this scope's table.
+     * Parents without the same table are searched by name.
+     */
+    public Environment.Variable lookupVariable(int symbol) {
+        requireSymbols();
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.symbols != symbols) {
+                return scope.lookupVariable(symbols.getName(symbol));
+            }
+            Environment.Variable variable = scope.variableSymbols != null ? scope.variableSymbols.get(symbol) : null;
+            if (variable != null) {
+                return variable;
+            }
         }
+        throw new RuntimeException("The variable " + symbols.getName(symbol) + " is not defined in this scope.");
     }
 
     public void defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
@@ -58,20 +133,75 @@ public final class Scope {
         } else {
             Environment.Function func = new Environment.Function(name, jvmName, parameterTypes, returnType, function);
             functions.put(func.getName() + "/" + func.getParameterTypes().size(), func);
+            if (symbols != null) {
+                if (functionSymbols == null) {
+                    functionSymbols = new SymbolMap<>();
+                }
+                int symbol = symbol(name);
+                if (symbol >= 0) {
+                    functionSymbols.put(key(symbol, parameterTypes.size()), func);
+                }
+            }
             return func;
         }
     }
 
+    /** Removes a function defined in this scope, if there is one. */
+    void undefineFunction(String name, int arity) {
+        if (functions.remove(name + "/" + arity) != null && functionSymbols != null) {
+            functionSymbols.remove(key(symbols.find(name), arity));
+        }
+    }
+
     public Environment.Function lookupFunction(String name, int arity) {
-        if (functions.containsKey(name + "/" + arity)) {
-            return functions.get(name + "/" + arity);
-        } else if (parent != null) {
-            return parent.lookupFunction(name, arity);
-        } else {
-            throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+        String key = name + "/" + arity;
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.functions.containsKey(key)) {
+                return scope.functions.get(key);
+            }
+        }
+        throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+    }
+
+    /**
+     * Looks up a function by the symbol of its name in this scope's table and
+     * its arity. Parents without the same table are searched by name.
+     */
+    public Environment.Function lookupFunction(int symbol, int arity) {
+        requireSymbols();
+        long key = key(symbol, arity);
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.symbols != symbols) {
+                return scope.lookupFunction(symbols.getName(symbol), arity);
+            }
+            Environment.Function function = scope.functionSymbols != null ? scope.functionSymbols.get(key) : null;
+            if (function != null) {
+                return function;
+            }
+        }
+        throw new RuntimeException("The function " + symbols.getName(symbol) + "/" + arity + " is not defined in this scope.");
+    }
+
+    /**
+     * Returns the symbol of a name being defined, or {@code -1} if this scope
+     * does not intern and the name is not in the table, so no node can have
+     * its symbol.
+     */
+    private int symbol(String name) {
+        return interning ? symbols.intern(name) : symbols.find(name);
+    }
+
+    private void requireSymbols() {
+        if (symbols == null) {
+            throw new IllegalStateException("This scope has no symbol table.");
         }
     }
 
+    /** Packs a symbol and an arity into one function key. */
+    private static long key(int symbol, int arity) {
+        return (long) symbol << 32 | arity & 0xFFFFFFFFL;
+    }
+
     @Override
     public String toString() {
         return "Scope{" +
@@ -81,4 +211,81 @@ public final class Scope {
                 '}';
     }
 
+    /**
+     * A small open addressing map from {@code long} keys to values, so symbol
+     * lookups never box their key.
+     */
+    private static final class SymbolMap<V> {
+
+        private long[] keys = new long[8];
+        private Object[] values = new Object[8];
+        private int size = 0;
+
+        @SuppressWarnings("unchecked")
+        V get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return (V) values[slot];
+                }
+            }
+            return null;
+        }
+
+        void put(long key, V value) {
+            if ((size + 1) * 2 > keys.length) {
+                long[] oldKeys = keys;
+                Object[] oldValues = values;
+                keys = new long[oldKeys.length * 2];
+                values = new Object[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldValues[i] != null) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key, value);
+        }
+
+        /** Removes the key, reinserting the rest of its cluster so probes still find them. */
+        void remove(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == null) {
+                return;
+            }
+            values[slot] = null;
+            size--;
+            for (slot = (slot + 1) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+                Object value = values[slot];
+                values[slot] = null;
+                size--;
+                insert(keys[slot], value);
+            }
+        }
+
+        private void insert(long key, Object value) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (values[slot] == null) {
+                size++;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private static int hash(long key) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ hash >>> 32);
+        }
+
+    }
+
 }
@@ -0,0 +1,206 @@
+package plc.project;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The input the {@link Lexer} scans. A source is a sequence of code units:
+ * chars for text already in memory, or raw UTF-8 bytes for a memory-mapped
+ * file. The syntax of the language is entirely ASCII, so the lexer can work on
+ * either without decoding; only the slices that become literals through
+ * {@link #slice(int, int)} are decoded.
+ *
+ * Token and {@link ParseException} indices are offsets in code units of the
+ * source they came from, so they always agree with each other. Use
+ * {@link #toCharIndex(int)} to report an offset in chars.
+ */
+public abstract class SourceText implements CharSequence {
+
+    public static SourceText of(String text) {
+        return new Text(text);
+    }
+
+    public static SourceText of(char[] chars) {
+        return new Chars(chars);
+    }
+
+    /** Maps a UTF-8 file into memory without reading or decoding it. */
+    public static SourceText map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File " + path + " is too large to map.");
+            }
+            return new Utf8(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Returns the code unit at the index. For UTF-8 sources this is the byte,
+     * so anything outside ASCII is above 127 and never part of the syntax.
+     */
+    @Override
+    public abstract char charAt(int index);
+
+    /** Returns the index just past the character starting at {@code index}. */
+    public abstract int nextCharacter(int index);
+
+    /** Decodes the code units in {@code [start, end)}. */
+    public abstract String slice(int start, int end);
+
+    /** Converts an offset in code units to an offset in chars. */
+    public abstract int toCharIndex(int index);
+
+    /** Appends the decoded code units in {@code [start, end)} to the builder. */
+    public void appendTo(StringBuilder builder, int start, int end) {
+        builder.append(slice(start, end));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return slice(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return slice(0, length());
+    }
+
+    private static final class Chars extends SourceText {
+
+        private final char[] chars;
+
+        private Chars(char[] chars) {
+            this.chars = chars;
+        }
+
+        @Override
+        public int length() {
+            return chars.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public int nextCharacter(int index) {
+            return index + 1;
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public void appendTo(StringBuilder builder, int start, int end) {
+            builder.append(chars, start, end - start);
+        }
+
+        @Override
+        public int toCharIndex(int index) {
+            return index;
+        }
+
+    }
+
+    /** Wraps a string as is, so sources built from strings are never copied. */
+    private static final class Text extends SourceText {
+
+        private final String text;
+
+        private Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        public int nextCharacter(int index) {
+            return index + 1;
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            return text.substring(start, end);
+        }
+
+        @Override
+        public void appendTo(StringBuilder builder, int start, int end) {
+            builder.append(text, start, end);
+        }
+
+        @Override
+        public int toCharIndex(int index) {
+            return index;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+
+    }
+
+    private static final class Utf8 extends SourceText {
+
+        private final MappedByteBuffer bytes;
+
+        private Utf8(MappedByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return bytes.limit();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(index) & 0xFF);
+        }
+
+        @Override
+        public int nextCharacter(int index) {
+            int lead = bytes.get(index) & 0xFF;
+            int length = lead < 0xC0 ? 1 : lead < 0xE0 ? 2 : lead < 0xF0 ? 3 : 4;
+            return Math.min(index + length, bytes.limit());
+        }
+
+        @Override
+        public String slice(int start, int end) {
+            byte[] slice = new byte[end - start];
+            bytes.get(start, slice);
+            return new String(slice, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int toCharIndex(int index) {
+            int chars = 0;
+            for (int i = 0; i < index; i++) {
+                int b = bytes.get(i) & 0xFF;
+                if (b >= 0xF0) {
+                    chars += 2;
+                } else if ((b & 0xC0) != 0x80) {
+                    chars++;
+                }
+            }
+            return chars;
+        }
+
+    }
+
+}
@@ -0,0 +1,124 @@
+package plc.project;
+
+import java.util.Arrays;
+
+/**
+ * Interns identifiers to dense {@code int} symbols, starting at {@code 0}.
+ * A table is meant to be shared by one compilation: the {@link Lexer} interns
+ * identifiers straight out of the {@link SourceText} as it scans them, and the
+ * {@link Parser}, the AST and {@link Scope} pass the symbols along, so looking
+ * up a name never has to hash or compare strings again.
+ *
+ * Each name is created as a {@link String} once, the first time it is seen,
+ * and {@link #getName(int)} always returns that same instance. Tables are not
+ * thread-safe.
+ */
+public final class SymbolTable {
+
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+
+    /** Open addressing table of {@code symbol + 1}, with {@code 0} for a free slot. */
+    private int[] slots = new int[128];
+    private int size = 0;
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the symbol for the name, adding it if it is new. */
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Returns the symbol for the code units {@code [start, end)} of the text,
+     * adding it if it is new. No string is created unless the name is new.
+     */
+    public int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int symbol = slots[slot] - 1;
+            if (symbol < 0) {
+                return add(text.subSequence(start, end).toString(), hash, slot);
+            } else if (hashes[symbol] == hash && matches(names[symbol], text, start, end)) {
+                return symbol;
+            }
+        }
+    }
+
+    /** Returns the symbol for the name, or {@code -1} if it was never interned. */
+    public int find(String name) {
+        int hash = name.hashCode();
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int symbol = slots[slot] - 1;
+            if (symbol < 0) {
+                return -1;
+            } else if (hashes[symbol] == hash && names[symbol].equals(name)) {
+                return symbol;
+            }
+        }
+    }
+
+    public String getName(int symbol) {
+        if (symbol < 0 || symbol >= size) {
+            throw new IndexOutOfBoundsException("Symbol " + symbol + " is not in this table.");
+        }
+        return names[symbol];
+    }
+
+    private int add(String name, int hash, int slot) {
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        names[size] = name;
+        hashes[size] = hash;
+        slots[slot] = ++size;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int symbol = 0; symbol < size; symbol++) {
+            int slot = hashes[symbol] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = symbol + 1;
+        }
+    }
+
+    /** The same hash as {@link String#hashCode()}, so both entry points agree. */
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolTable" + Arrays.toString(Arrays.copyOf(names, size));
+    }
+
+}
@@ -11,12 +11,173 @@ public final class Token {
         OPERATOR
     }
 
+    /**
+     * Small integer codes for tokens, resolved once by the lexer so the parser
+     * can dispatch with a {@code switch} instead of comparing literals. The
+     * first codes mirror {@link Type} and are used for tokens that are not a
+     * keyword or a known operator.
+     */
+    public static final class Kind {
+
+        public static final int IDENTIFIER = 0;
+        public static final int INTEGER = 1;
+        public static final int DECIMAL = 2;
+        public static final int CHARACTER = 3;
+        public static final int STRING = 4;
+        public static final int OPERATOR = 5;
+
+        public static final int LET = 6;
+        public static final int DEF = 7;
+        public static final int DO = 8;
+        public static final int END = 9;
+        public static final int IF = 10;
+        public static final int ELSE = 11;
+        public static final int WHILE = 12;
+        public static final int RETURN = 13;
+        public static final int NIL = 14;
+        public static final int TRUE = 15;
+        public static final int FALSE = 16;
+        public static final int AND = 17;
+        public static final int OR = 18;
+
+        public static final int ASSIGN = 19;
+        public static final int SEMICOLON = 20;
+        public static final int LEFT_PAREN = 21;
+        public static final int RIGHT_PAREN = 22;
+        public static final int COMMA = 23;
+        public static final int DOT = 24;
+        public static final int LESS = 25;
+        public static final int LESS_EQUAL = 26;
+        public static final int GREATER = 27;
+        public static final int GREATER_EQUAL = 28;
+        public static final int EQUAL = 29;
+        public static final int NOT_EQUAL = 30;
+        public static final int PLUS = 31;
+        public static final int MINUS = 32;
+        public static final int TIMES = 33;
+        public static final int DIVIDE = 34;
+
+        private static final int FIRST_KEYWORD = LET;
+        private static final int FIRST_OPERATOR = ASSIGN;
+        static final int COUNT = DIVIDE + 1;
+
+        private static final Type[] TYPES = Type.values();
+
+        /** Literals of keywords and operators, indexed by kind. */
+        private static final String[] LITERALS = new String[COUNT];
+
+        /** Keywords by {@link #hash}, which is collision-free for them. */
+        private static final int[] KEYWORDS = new int[32];
+
+        /** Single-character operators, and the kind of the operator followed by '='. */
+        private static final int[] OPERATORS = new int[128];
+        private static final int[] OPERATORS_EQUAL = new int[128];
+
+        static {
+            String[] keywords = {"LET", "DEF", "DO", "END", "IF", "ELSE", "WHILE", "RETURN", "NIL", "TRUE", "FALSE", "AND", "OR"};
+            for (int i = 0; i < keywords.length; i++) {
+                int kind = FIRST_KEYWORD + i;
+                LITERALS[kind] = keywords[i];
+                int slot = hash(keywords[i].charAt(0), keywords[i].charAt(keywords[i].length() - 1), keywords[i].length());
+                if (KEYWORDS[slot] != IDENTIFIER) {
+                    throw new AssertionError("Keyword hash collision for " + keywords[i] + ".");
+                }
+                KEYWORDS[slot] = kind;
+            }
+            String[] operators = {"=", ";", "(", ")", ",", ".", "<", "<=", ">", ">=", "==", "!=", "+", "-", "*", "/"};
+            for (int i = 0; i < operators.length; i++) {
+                int kind = FIRST_OPERATOR + i;
+                LITERALS[kind] = operators[i];
+                char first = operators[i].charAt(0);
+                if (operators[i].length() == 1) {
+                    OPERATORS[first] = kind;
+                } else {
+                    OPERATORS_EQUAL[first] = kind;
+                }
+            }
+        }
+
+        private Kind() {}
+
+        /** Resolves the kind of a token from its type and literal. */
+        public static int of(Type type, String literal) {
+            if (type == Type.IDENTIFIER) {
+                return keyword(literal, 0, literal.length());
+            } else if (type == Type.OPERATOR) {
+                return operator(literal, 0, literal.length());
+            }
+            return type.ordinal();
+        }
+
+        /** Resolves an identifier to its keyword kind, or {@link #IDENTIFIER}. */
+        public static int keyword(CharSequence chars, int start, int length) {
+            if (length < 2 || length > 6) {
+                return IDENTIFIER;
+            }
+            int kind = KEYWORDS[hash(chars.charAt(start), chars.charAt(start + length - 1), length)];
+            String keyword = LITERALS[kind];
+            if (kind == IDENTIFIER || keyword.length() != length) {
+                return IDENTIFIER;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars.charAt(start + i) != keyword.charAt(i)) {
+                    return IDENTIFIER;
+                }
+            }
+            return kind;
+        }
+
+        /** Resolves an operator to its kind, or {@link #OPERATOR}. */
+        public static int operator(CharSequence chars, int start, int length) {
+            if (length == 0) {
+                return OPERATOR;
+            }
+            char first = chars.charAt(start);
+            int kind = IDENTIFIER;
+            if (first < 128) {
+                if (length == 1) {
+                    kind = OPERATORS[first];
+                } else if (length == 2 && chars.charAt(start + 1) == '=') {
+                    kind = OPERATORS_EQUAL[first];
+                }
+            }
+            return kind == IDENTIFIER ? OPERATOR : kind;
+        }
+
+        /** Returns the {@link Type} of tokens of the given kind. */
+        public static Type typeOf(int kind) {
+            if (kind < FIRST_KEYWORD) {
+                return TYPES[kind];
+            }
+            return kind < FIRST_OPERATOR ? Type.IDENTIFIER : Type.OPERATOR;
+        }
+
+        /**
+         * Returns the literal of a keyword or operator kind, which is always
+         * the same string instance, or {@code null} for other kinds.
+         */
+        public static String literal(int kind) {
+            return LITERALS[kind];
+        }
+
+        private static int hash(char first, char last, int length) {
+            return (first + 10 * last + length) & 31;
+        }
+
+    }
+
     private final Type type;
+    private final int kind;
     private final String literal;
     private final int index;
 
     public Token(Type type, String literal, int index) {
+        this(type, Kind.of(type, literal), literal, index);
+    }
+
+    Token(Type type, int kind, String literal, int index) {
         this.type = type;
+        this.kind = kind;
         this.literal = literal;
         this.index = index;
     }
@@ -25,6 +186,10 @@ public final class Token {
         return type;
     }
 
+    public int getKind() {
+        return kind;
+    }
+
     public String getLiteral() {
         return literal;
     }
@@ -1,14 +1,23 @@
 package plc.project;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -403,6 +412,300 @@ public final class AnalyzerTests {
         );
     }
 
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testSymbolLookup(String test, String input, boolean success) {
+        SymbolTable symbols = new SymbolTable();
+        Ast.Stmt ast = new Parser(new Lexer(input).lexBuffer(symbols)).parseStatement();
+        Consumer<Scope> definitions = scope -> {
+            scope.defineVariable("variable", "variable", Environment.Type.INTEGER, Environment.NIL);
+            scope.defineFunction("function", "function", Arrays.asList(Environment.Type.INTEGER), Environment.Type.INTEGER, args -> Environment.NIL);
+            scope.defineVariable("object", "object", OBJECT_TYPE, Environment.NIL);
+        };
+        Scope scope = init(new Scope(null, symbols), definitions);
+        if (success) {
+            // The same statement analyzed by name, without a symbol table.
+            Ast.Stmt expected = new Parser(new Lexer(input).lex()).parseStatement();
+            new Analyzer(init(new Scope(null), definitions)).visit(expected);
+            test(ast, expected, scope);
+        } else {
+            test(ast, null, scope);
+        }
+    }
+
+    private static Stream<Arguments> testSymbolLookup() {
+        return Stream.of(
+                Arguments.of("Variable", "function(variable);", true),
+                Arguments.of("Field", "function(object.field);", true),
+                Arguments.of("Undefined Variable", "function(undefined);", false),
+                Arguments.of("Wrong Arity", "function(variable, variable);", false)
+        );
+    }
+
+    @Test
+    public void testSymbolLookupOtherTable() {
+        SymbolTable symbols = new SymbolTable();
+        Ast.Stmt ast = new Parser(new Lexer("function(variable);").lexBuffer(symbols)).parseStatement();
+        // The same names, interned in the other order.
+        SymbolTable other = new SymbolTable();
+        other.intern("variable");
+        other.intern("function");
+        Scope scope = new Scope(null, other);
+        scope.defineVariable("variable", "variable", Environment.Type.INTEGER, Environment.NIL);
+        scope.defineFunction("function", "function", Arrays.asList(Environment.Type.INTEGER), Environment.Type.INTEGER, args -> Environment.NIL);
+        new Analyzer(scope).visit(ast);
+        Ast.Expr.Function function = (Ast.Expr.Function) ((Ast.Stmt.Expression) ast).getExpression();
+        Assertions.assertEquals("function", function.getFunction().getName());
+        Assertions.assertEquals("variable", ((Ast.Expr.Access) function.getArguments().get(0)).getVariable().getName());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testPipeline(String test, String input) {
+        RuntimeException expected = Assertions.assertThrows(RuntimeException.class,
+                () -> new Analyzer(new Scope(null)).visit(new Parser(new Lexer(input).lexBuffer()).parseSource()));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                    () -> new Analyzer(new Scope(null)).analyze(new Parser(new Lexer(input).lexBuffer()), executor));
+            Assertions.assertEquals(expected.getMessage(), exception.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testPipelineSameThread() {
+        Parser parser = new Parser(new Lexer("LET x = 1; DEF main() DO RETURN 0; END").lexBuffer());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new Analyzer(new Scope(null)).analyze(parser, Runnable::run));
+    }
+
+    private static Stream<Arguments> testPipeline() {
+        return Stream.of(
+                Arguments.of("Missing Main", "LET x = undefined; DEF f() DO END"),
+                Arguments.of("Main Return Type", "LET x = 1; DEF f() DO print(x); END DEF main() DO RETURN 0; END"),
+                Arguments.of("Syntax Error", "LET x = undefined; DEF main() DO RETURN ; END")
+        );
+    }
+
+    @Test
+    public void testCodec() throws IOException {
+        Ast.Source source = new Parser(new Lexer("LET x = 1; DEF f(a) DO LET y = 1.5; print(1 + 2); RETURN a; END").lex()).parseSource();
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        analyzer.visit(source.getFields().get(0));
+        analyzer.visit(source.getMethods().get(0));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AstCodec.write(source, out);
+        Ast.Source read = AstCodec.read(new ByteArrayInputStream(out.toByteArray()));
+        Assertions.assertEquals(source, read);
+        Assertions.assertEquals(source.getFields().get(0).getVariable(), read.getFields().get(0).getVariable());
+        Assertions.assertEquals(source.getMethods().get(0).getFunction(), read.getMethods().get(0).getFunction());
+        Ast.Stmt.Expression print = (Ast.Stmt.Expression) read.getMethods().get(0).getStatements().get(1);
+        Ast.Expr.Binary binary = (Ast.Expr.Binary) ((Ast.Expr.Function) print.getExpression()).getArguments().get(0);
+        Assertions.assertEquals(Environment.Type.INTEGER, binary.getType());
+        byte[] bytes = out.toByteArray();
+        bytes[0] = 0;
+        Assertions.assertThrows(IOException.class, () -> AstCodec.read(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testCodecDepth() throws IOException {
+        int depth = 1_000_000;
+        Ast.Expr expression = new Ast.Expr.Access(Optional.empty(), "x");
+        for (int i = 0; i < depth; i++) {
+            expression = new Ast.Expr.Binary("+", expression, new Ast.Expr.Access(Optional.empty(), "x"));
+        }
+        Ast.Source source = new Ast.Source(Arrays.asList(new Ast.Field("y", "Integer", Optional.of(expression))), Arrays.asList());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AstCodec.write(source, out);
+        Ast.Source read = AstCodec.read(new ByteArrayInputStream(out.toByteArray()));
+        Assertions.assertEquals(source.hashCode(), read.hashCode());
+        expression = read.getFields().get(0).getValue().get();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expr.Binary) expression).getLeft();
+        }
+        Assertions.assertEquals(new Ast.Expr.Access(Optional.empty(), "x"), expression);
+    }
+
+    @Test
+    public void testCodecCorrupt() throws IOException {
+        // A field whose name claims to be 2^28 - 1 bytes long.
+        byte[] length = {0x50, 0x4C, 0x43, 0x41, 2, 2, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F, 'x'};
+        Assertions.assertThrows(IOException.class, () -> AstCodec.read(new ByteArrayInputStream(length)));
+        // A return statement without its value.
+        byte[] missing = {0x50, 0x4C, 0x43, 0x41, 2, 10};
+        IOException child = Assertions.assertThrows(IOException.class, () -> AstCodec.read(new ByteArrayInputStream(missing)));
+        Assertions.assertTrue(child.getMessage().contains("missing"));
+        // A source whose one field is a nil literal.
+        byte[] kind = {0x50, 0x4C, 0x43, 0x41, 2, 11, 0, 0, 1, 1, 0};
+        IOException mismatch = Assertions.assertThrows(IOException.class, () -> AstCodec.read(new ByteArrayInputStream(kind)));
+        Assertions.assertTrue(mismatch.getMessage().contains("Field"));
+
+        Ast.Expr.Literal literal = new Ast.Expr.Literal(BigInteger.ONE);
+        literal.setType(new Environment.Type("Unregistered", "Unregistered", new Scope(null)));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AstCodec.write(new Ast.Source(Arrays.asList(new Ast.Field("x", "Integer", Optional.of(literal))), Arrays.asList()), out);
+        IOException exception = Assertions.assertThrows(IOException.class,
+                () -> AstCodec.read(new ByteArrayInputStream(out.toByteArray())));
+        Assertions.assertTrue(exception.getMessage().contains("Unregistered"));
+    }
+
+    @Test
+    public void testSideTable() {
+        Ast.Method method = new Parser(new Lexer("f() DO LET y = x; print(y + 1); END").lex()).parseMethod();
+        Scope integers = new Scope(null);
+        integers.defineVariable("x", "x", Environment.Type.INTEGER, Environment.NIL);
+        Scope strings = new Scope(null);
+        strings.defineVariable("x", "x", Environment.Type.STRING, Environment.NIL);
+        Analysis integer = new Analyzer(integers).analyze(method);
+        Analysis string = new Analyzer(strings).analyze(method);
+        Ast.Stmt.Expression print = (Ast.Stmt.Expression) method.getStatements().get(1);
+        Ast.Expr.Binary binary = (Ast.Expr.Binary) ((Ast.Expr.Function) print.getExpression()).getArguments().get(0);
+        Assertions.assertEquals(Environment.Type.INTEGER, integer.getType(binary));
+        Assertions.assertEquals(Environment.Type.STRING, string.getType(binary));
+        Assertions.assertEquals(Environment.Type.ANY, integer.getFunction(method).getReturnType());
+        Assertions.assertThrows(IllegalStateException.class, binary::getType);
+        Assertions.assertThrows(IllegalStateException.class, method::getFunction);
+    }
+
+    @Test
+    public void testWalker() {
+        Ast.Expr expr = new Parser(new Lexer("f(1 + x, y)").lex()).parseExpression();
+        StringBuilder order = new StringBuilder();
+        new AstWalker() {
+            @Override
+            protected boolean enter(Ast ast) {
+                order.append("<").append(ast.getClass().getSimpleName());
+                return !(ast instanceof Ast.Expr.Binary);
+            }
+
+            @Override
+            protected void exit(Ast ast) {
+                order.append(">");
+            }
+        }.walk(expr);
+        Assertions.assertEquals("<Function<Binary><Access>>", order.toString());
+    }
+
+    @Test
+    public void testDeepExpression() {
+        Ast.Expr expr = new Ast.Expr.Literal(BigInteger.ONE);
+        for (int i = 0; i < 100_000; i++) {
+            expr = new Ast.Expr.Group(new Ast.Expr.Binary("+", expr, new Ast.Expr.Literal(BigInteger.ONE)));
+        }
+        new Analyzer(new Scope(null)).visit(expr);
+        Assertions.assertEquals(Environment.Type.INTEGER, expr.getType());
+    }
+
+    @Test
+    public void testDeepStatements() {
+        Ast.Expr.Function print = new Ast.Expr.Function(Optional.empty(), "print", Arrays.asList(new Ast.Expr.Literal(BigInteger.ONE)));
+        Ast.Stmt stmt = new Ast.Stmt.Expression(print);
+        for (int i = 0; i < 100_000; i++) {
+            Ast.Expr condition = new Ast.Expr.Literal(Boolean.TRUE);
+            stmt = i % 2 == 0
+                    ? new Ast.Stmt.While(condition, Arrays.asList(stmt))
+                    : new Ast.Stmt.If(condition, Arrays.asList(stmt), Arrays.asList(new Ast.Stmt.Expression(print)));
+        }
+        new Analyzer(new Scope(null)).visit(stmt);
+        Assertions.assertEquals("print", print.getFunction().getName());
+    }
+
+    @Test
+    public void testCallErrorOrder() {
+        // As when analyzed recursively, the method is looked up before its argument.
+        Ast.Expr.Function call = new Ast.Expr.Function(Optional.of(new Ast.Expr.Access(Optional.empty(), "object")), "missing",
+                Arrays.asList(new Ast.Expr.Access(Optional.empty(), "undefined")));
+        Scope scope = new Scope(null);
+        scope.defineVariable("object", "object", OBJECT_TYPE, Environment.NIL);
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> new Analyzer(scope).visit(call));
+        Assertions.assertEquals("The function missing/2 is not defined in this scope.", exception.getMessage());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testParallel(String test, String input, String error) {
+        Ast.Source parsed = new Parser(new Lexer(input).lex()).parseSource();
+        Ast.Method main = new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                new Ast.Stmt.Return(new Ast.Expr.Literal(BigInteger.ZERO))
+        ));
+        List<Ast.Method> methods = new ArrayList<>(parsed.getMethods());
+        methods.add(main);
+        Ast.Source source = new Ast.Source(parsed.getFields(), methods);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            if (error == null) {
+                new Analyzer(new Scope(null)).analyze(source, pool);
+                Assertions.assertEquals(Environment.Type.INTEGER, main.getFunction().getReturnType());
+            } else {
+                RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                        () -> new Analyzer(new Scope(null)).analyze(source, pool));
+                Assertions.assertEquals(error, exception.getMessage());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Stream<Arguments> testParallel() {
+        return Stream.of(
+                Arguments.of("Forward Call", "LET x = 1; DEF f() DO g(x); END DEF g(a) DO print(a); END", null),
+                Arguments.of("First Error", "DEF f() DO print(1); END DEF g() DO print(y); END DEF h() DO print(z); END",
+                        "The variable y is not defined in this scope.")
+        );
+    }
+
+    @Test
+    public void testParallelSymbols() {
+        SymbolTable symbols = new SymbolTable();
+        Ast.Source parsed = new Parser(new Lexer("DEF f(a) DO LET b = a; print(b); END").lexBuffer(symbols)).parseSource();
+        Ast.Method main = new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                new Ast.Stmt.Declaration("local", Optional.of(new Ast.Expr.Literal(BigInteger.ONE))),
+                new Ast.Stmt.Return(new Ast.Expr.Literal(BigInteger.ZERO))
+        ));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            new Analyzer(new Scope(null, symbols)).analyze(withMain(parsed, main), pool);
+        } finally {
+            pool.shutdownNow();
+        }
+        // Bodies look up the table but never add to it, so they can share it.
+        Assertions.assertEquals(-1, symbols.find("local"));
+        Ast.Stmt.Expression print = (Ast.Stmt.Expression) parsed.getMethods().get(0).getStatements().get(1);
+        Ast.Expr.Access access = (Ast.Expr.Access) ((Ast.Expr.Function) print.getExpression()).getArguments().get(0);
+        Assertions.assertEquals("b", access.getVariable().getName());
+    }
+
+    @Test
+    public void testIncremental() {
+        Ast.Method main = new Ast.Method("main", Arrays.asList(), Arrays.asList(), Optional.of("Integer"), Arrays.asList(
+                new Ast.Stmt.Return(new Ast.Expr.Literal(BigInteger.ZERO))
+        ));
+        IncrementalParser parser = new IncrementalParser("LET x = 1; DEF f(a) DO print(a); END DEF g() DO f(x); END DEF h() DO print(x); END");
+        IncrementalAnalyzer analyzer = new IncrementalAnalyzer(new Scope(null));
+        analyzer.analyze(withMain(parser.getSource(), main));
+        Assertions.assertEquals(4, analyzer.getChecked());
+
+        String text = parser.getText();
+        parser.edit(text.indexOf("print(a)"), "print(a)".length(), "print(1)");
+        analyzer.analyze(withMain(parser.getSource(), main));
+        Assertions.assertEquals(1, analyzer.getChecked());
+
+        text = parser.getText();
+        parser.edit(text.indexOf("f(a)") + 2, 1, "a, b");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                () -> analyzer.analyze(withMain(parser.getSource(), main)));
+        Assertions.assertEquals("The function f/1 is not defined in this scope.", exception.getMessage());
+        Assertions.assertEquals(2, analyzer.getChecked());
+    }
+
+    private static Ast.Source withMain(Ast.Source source, Ast.Method main) {
+        List<Ast.Method> methods = new ArrayList<>(source.getMethods());
+        methods.add(main);
+        return new Ast.Source(source.getFields(), methods);
+    }
+
     @ParameterizedTest(name = "{0}")
     @MethodSource
     public void testRequireAssignable(String test, Environment.Type target, Environment.Type type, boolean success) {
@@ -423,6 +726,19 @@ public final class AnalyzerTests {
         );
     }
 
+    @Test
+    public void testRegisteredAssignable() {
+        Environment.Type type = new Environment.Type("LatticeType", "LatticeType", new Scope(null));
+        Environment.registerType(type);
+        Assertions.assertSame(type, Environment.getType("LatticeType"));
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(Environment.Type.ANY, type));
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(type, type));
+        Assertions.assertThrows(RuntimeException.class, () -> Analyzer.requireAssignable(Environment.Type.COMPARABLE, type));
+        Assertions.assertThrows(RuntimeException.class, () -> Analyzer.requireAssignable(type, Environment.Type.INTEGER));
+        Assertions.assertThrows(RuntimeException.class, () -> Analyzer.requireAssignable(OBJECT_TYPE, type));
+        Assertions.assertDoesNotThrow(() -> Analyzer.requireAssignable(Environment.Type.ANY, OBJECT_TYPE));
+    }
+
     /**
      * Helper function for tests. If {@param expected} is {@code null}, analysis
      * is expected to throw a {@link RuntimeException}.
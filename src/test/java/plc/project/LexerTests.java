@@ -0,0 +1,179 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Standard JUnit5 parameterized tests. Each test lexes a single input and
+ * compares the resulting tokens, or expects a {@link ParseException} (wrapped
+ * in a {@link RuntimeException}) when {@code expected} is {@code null}.
+ */
+final class LexerTests {
+
+    @ParameterizedTest
+    @MethodSource
+    void testToken(String test, String input, Token expected) {
+        test(input, expected == null ? null : Arrays.asList(expected));
+    }
+
+    private static Stream<Arguments> testToken() {
+        return Stream.of(
+                Arguments.of("Identifier", "getName", new Token(Token.Type.IDENTIFIER, "getName", 0)),
+                Arguments.of("Hyphenated Identifier", "a-b-c", new Token(Token.Type.IDENTIFIER, "a-b-c", 0)),
+                Arguments.of("Integer", "123", new Token(Token.Type.INTEGER, "123", 0)),
+                Arguments.of("Negative Integer", "-1", new Token(Token.Type.INTEGER, "-1", 0)),
+                Arguments.of("Decimal", "123.456", new Token(Token.Type.DECIMAL, "123.456", 0)),
+                Arguments.of("Character", "'c'", new Token(Token.Type.CHARACTER, "'c'", 0)),
+                Arguments.of("Escaped Character", "'\\n'", new Token(Token.Type.CHARACTER, "'\\n'", 0)),
+                Arguments.of("String", "\"Hello, World!\"", new Token(Token.Type.STRING, "\"Hello, World!\"", 0)),
+                Arguments.of("Escaped String", "\"1\\t2\"", new Token(Token.Type.STRING, "\"1\\t2\"", 0)),
+                Arguments.of("Comparison", "<=", new Token(Token.Type.OPERATOR, "<=", 0)),
+                Arguments.of("Logical", "&&", new Token(Token.Type.OPERATOR, "&&", 0)),
+                Arguments.of("Character Operator", "(", new Token(Token.Type.OPERATOR, "(", 0)),
+                Arguments.of("Empty Character", "''", null),
+                Arguments.of("Unterminated String", "\"unterminated", null),
+                Arguments.of("Invalid Escape", "\"invalid\\escape\"", null)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource
+    void testTokens(String test, String input, List<Token> expected) {
+        test(input, expected);
+    }
+
+    private static Stream<Arguments> testTokens() {
+        return Stream.of(
+                Arguments.of("Declaration", "LET x = 5;", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "LET", 0),
+                        new Token(Token.Type.IDENTIFIER, "x", 4),
+                        new Token(Token.Type.OPERATOR, "=", 6),
+                        new Token(Token.Type.INTEGER, "5", 8),
+                        new Token(Token.Type.OPERATOR, ";", 9)
+                )),
+                Arguments.of("Whitespace", "one\b\n\r\ttwo", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "one", 0),
+                        new Token(Token.Type.IDENTIFIER, "two", 7)
+                )),
+                Arguments.of("Method Call", "obj.method(1.0)", Arrays.asList(
+                        new Token(Token.Type.IDENTIFIER, "obj", 0),
+                        new Token(Token.Type.OPERATOR, ".", 3),
+                        new Token(Token.Type.IDENTIFIER, "method", 4),
+                        new Token(Token.Type.OPERATOR, "(", 10),
+                        new Token(Token.Type.DECIMAL, "1.0", 11),
+                        new Token(Token.Type.OPERATOR, ")", 14)
+                ))
+        );
+    }
+
+    @Test
+    void testKinds() {
+        List<Token> tokens = new Lexer("LET let RETURN RETURNS <= < ! &&").lex();
+        int[] expected = {Token.Kind.LET, Token.Kind.IDENTIFIER, Token.Kind.RETURN, Token.Kind.IDENTIFIER,
+                Token.Kind.LESS_EQUAL, Token.Kind.LESS, Token.Kind.OPERATOR, Token.Kind.OPERATOR};
+        for (int i = 0; i < expected.length; i++) {
+            Assertions.assertEquals(expected[i], tokens.get(i).getKind());
+            Assertions.assertEquals(Token.Kind.of(tokens.get(i).getType(), tokens.get(i).getLiteral()), tokens.get(i).getKind());
+        }
+        Assertions.assertEquals(Token.Kind.OPERATOR, new Token(Token.Type.OPERATOR, "", 0).getKind());
+        Assertions.assertEquals(Token.Kind.IDENTIFIER, new Token(Token.Type.IDENTIFIER, "", 0).getKind());
+    }
+
+    @Test
+    void testStreamingParser() {
+        String input = "LET x = 1; DEF main() DO WHILE x != 10 DO print(x); x = x + 1; END END";
+        Ast.Source expected = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, new Parser(new Lexer(input)).parseSource());
+    }
+
+    @Test
+    void testTokenBuffer() {
+        String input = "LET x = 1; DEF main() DO print(\"x\" + x); END";
+        List<Token> tokens = new Lexer(input).lex();
+        TokenBuffer buffer = new Lexer(input).lexBuffer();
+        Assertions.assertEquals(tokens.size(), buffer.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            Assertions.assertEquals(tokens.get(i), buffer.getToken(i));
+        }
+        Assertions.assertEquals(new Parser(tokens).parseSource(), new Parser(buffer).parseSource());
+    }
+
+    @Test
+    void testParallel() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; builder.length() < 4_000_000; i++) {
+            builder.append("LET name").append(i).append(" = \"a\\\"b\" + 'c';\n");
+        }
+        char[] chars = builder.toString().toCharArray();
+        TokenBuffer expected = new Lexer(chars, 0, chars.length).lexBuffer();
+        TokenBuffer actual = Lexer.lexParallel(SourceText.of(chars), new ForkJoinPool(4));
+        Assertions.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assertions.assertEquals(expected.getKind(i), actual.getKind(i));
+            Assertions.assertEquals(expected.getStart(i), actual.getStart(i));
+            Assertions.assertEquals(expected.getLength(i), actual.getLength(i));
+        }
+    }
+
+    @Test
+    void testMappedSource() throws IOException {
+        String input = "DEF main() DO print(\"h\u00e9llo\"); print('\u00fc') END";
+        Path path = Files.createTempFile("source", ".plc");
+        try {
+            Files.write(path, input.getBytes(StandardCharsets.UTF_8));
+            SourceText text = SourceText.map(path);
+            List<Token> tokens = new Lexer(text).lex();
+            Assertions.assertEquals(new Token(Token.Type.STRING, "\"h\u00e9llo\"", 20), tokens.get(7));
+            Assertions.assertEquals(new Token(Token.Type.CHARACTER, "'\u00fc'", 37), tokens.get(12));
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                    () -> new Parser(new Lexer(text).lexBuffer()).parseSource());
+            int index = ((ParseException) exception.getCause()).getIndex();
+            Assertions.assertEquals(43, index);
+            Assertions.assertEquals(41, text.toCharIndex(index));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    void testSupplementaryCharacter() throws IOException {
+        String input = "'\uD83D\uDE00'";
+        RuntimeException expected = Assertions.assertThrows(RuntimeException.class, () -> new Lexer(input).lex());
+        Path path = Files.createTempFile("source", ".plc");
+        try {
+            Files.write(path, input.getBytes(StandardCharsets.UTF_8));
+            SourceText text = SourceText.map(path);
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> new Lexer(text).lex());
+            Assertions.assertEquals(expected.getCause().getMessage(), exception.getCause().getMessage());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Standard test function. If expected is null, a ParseException is expected
+     * to be thrown as the cause of a RuntimeException.
+     */
+    private static void test(String input, List<Token> expected) {
+        Lexer lexer = new Lexer(input);
+        if (expected != null) {
+            Assertions.assertEquals(expected, lexer.lex());
+        } else {
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class, lexer::lex);
+            Assertions.assertTrue(exception.getCause() instanceof ParseException);
+        }
+    }
+
+}
@@ -9,9 +9,13 @@ import org.junit.jupiter.params.provider.MethodSource;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -288,10 +292,26 @@ final class ParserTests {
                         Arrays.asList(new Token(Token.Type.INTEGER, "1", 0)),
                         new Ast.Expr.Literal(new BigInteger("1"))
                 ),
+                Arguments.of("Negative Integer Literal",
+                        Arrays.asList(new Token(Token.Type.INTEGER, "-007", 0)),
+                        new Ast.Expr.Literal(new BigInteger("-7"))
+                ),
+                Arguments.of("Large Integer Literal",
+                        Arrays.asList(new Token(Token.Type.INTEGER, "123456789012345678901234567890", 0)),
+                        new Ast.Expr.Literal(new BigInteger("123456789012345678901234567890"))
+                ),
                 Arguments.of("Decimal Literal",
                         Arrays.asList(new Token(Token.Type.DECIMAL, "2.0", 0)),
                         new Ast.Expr.Literal(new BigDecimal("2.0"))
                 ),
+                Arguments.of("Negative Decimal Literal",
+                        Arrays.asList(new Token(Token.Type.DECIMAL, "-0.050", 0)),
+                        new Ast.Expr.Literal(new BigDecimal("-0.050"))
+                ),
+                Arguments.of("Precise Decimal Literal",
+                        Arrays.asList(new Token(Token.Type.DECIMAL, "3.14159265358979323846264338", 0)),
+                        new Ast.Expr.Literal(new BigDecimal("3.14159265358979323846264338"))
+                ),
                 Arguments.of("Character Literal",
                         Arrays.asList(new Token(Token.Type.CHARACTER, "'c'", 0)),
                         new Ast.Expr.Literal('c')
@@ -303,6 +323,14 @@ final class ParserTests {
                 Arguments.of("Escape Character",
                         Arrays.asList(new Token(Token.Type.STRING, "\"Hello,\\nWorld!\"", 0)),
                         new Ast.Expr.Literal("Hello,\nWorld!")
+                ),
+                Arguments.of("Escaped Quotes",
+                        Arrays.asList(new Token(Token.Type.STRING, "\"\\\"a\\\\b\\'\\t\"", 0)),
+                        new Ast.Expr.Literal("\"a\\b'\t")
+                ),
+                Arguments.of("Escaped Character Literal",
+                        Arrays.asList(new Token(Token.Type.CHARACTER, "'\\n'", 0)),
+                        new Ast.Expr.Literal('\n')
                 )
         );
     }
@@ -552,6 +580,255 @@ final class ParserTests {
         test(input, expected, Parser::parseSource);
     }
 
+    @ParameterizedTest
+    @MethodSource
+    void testIterativeExpression(String test, String input) {
+        Parser recursive = new Parser(new Lexer(input).lexBuffer());
+        Parser iterative = new Parser(new Lexer(input).lexBuffer());
+        iterative.setIterative(true);
+        try {
+            Ast.Expr expected = recursive.parseExpression();
+            Assertions.assertEquals(expected, iterative.parseExpression());
+        } catch (RuntimeException e) {
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class, iterative::parseExpression);
+            Assertions.assertEquals(e.getCause().getMessage(), exception.getCause().getMessage());
+        }
+    }
+
+    private static Stream<Arguments> testIterativeExpression() {
+        return Stream.of(
+                Arguments.of("Precedence", "a OR b AND c < d + e * f - g / h == i"),
+                Arguments.of("Groups", "((a + b) * (c - (d)))"),
+                Arguments.of("Calls", "f(a, g(b + c), h())(1) + obj.m(x, y).field.n()"),
+                Arguments.of("Literals", "NIL == TRUE AND 'c' != \"s\" OR 1.5 > -2"),
+                Arguments.of("Missing Operand", "a + * b"),
+                Arguments.of("Unclosed Group", "(a + b"),
+                Arguments.of("Unclosed Call", "f(a, b"),
+                Arguments.of("Missing Name", "obj.(1)")
+        );
+    }
+
+    @Test
+    void testIterativeDepth() {
+        int depth = 1_000_000;
+        StringBuilder chain = new StringBuilder("x");
+        for (int i = 0; i < depth; i++) {
+            chain.append(" + x");
+        }
+        Parser parser = new Parser(new Lexer(chain.toString()).lexBuffer());
+        parser.setIterative(true);
+        Ast.Expr expression = parser.parseExpression();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expr.Binary) expression).getLeft();
+        }
+        Assertions.assertEquals(new Ast.Expr.Access(Optional.empty(), "x"), expression);
+
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            nested.append(i % 2 == 0 ? "(" : "f(");
+        }
+        nested.append("x");
+        for (int i = 0; i < depth; i++) {
+            nested.append(')');
+        }
+        parser = new Parser(new Lexer(nested.toString()).lexBuffer());
+        parser.setIterative(true);
+        expression = parser.parseExpression();
+        for (int i = 0; i < depth; i++) {
+            expression = i % 2 == 0
+                    ? ((Ast.Expr.Group) expression).getExpression()
+                    : ((Ast.Expr.Function) expression).getArguments().get(0);
+        }
+        Assertions.assertEquals(new Ast.Expr.Access(Optional.empty(), "x"), expression);
+    }
+
+    @Test
+    void testParallelSource() {
+        StringBuilder builder = new StringBuilder("LET x = 1;\n");
+        for (int i = 0; i < 1000; i++) {
+            builder.append("DEF m").append(i).append("(a) DO IF a DO WHILE a DO a = a - 1; END END RETURN a; END\n");
+        }
+        String input = builder.toString();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Ast.Source expected = new Parser(new Lexer(input).lexBuffer()).parseSource();
+        Assertions.assertEquals(expected, new Parser(new Lexer(input).lexBuffer()).parseSource(pool));
+
+        // An END missing from one method throws off the prescan after it.
+        String broken = input.replaceFirst("a - 1; END", "a - 1;");
+        RuntimeException sequential = Assertions.assertThrows(RuntimeException.class,
+                () -> new Parser(new Lexer(broken).lexBuffer()).parseSource());
+        RuntimeException parallel = Assertions.assertThrows(RuntimeException.class,
+                () -> new Parser(new Lexer(broken).lexBuffer()).parseSource(pool));
+        Assertions.assertEquals(sequential.getCause().getMessage(), parallel.getCause().getMessage());
+    }
+
+    @Test
+    void testLazyMethods() {
+        String input = "LET x = 1;\nDEF f(a) DO IF a DO RETURN a; END RETURN x; END\nDEF g() DO print(; END\n";
+        Parser parser = new Parser(new Lexer(input).lexBuffer());
+        parser.setLazy(true);
+        Ast.Source source = parser.parseSource();
+        Ast.Method f = source.getMethods().get(0);
+        Assertions.assertFalse(f.hasStatements());
+        Assertions.assertEquals(new Parser(new Lexer(input.replace("print(;", "")).lex()).parseSource().getMethods().get(0), f);
+        Assertions.assertTrue(f.hasStatements());
+
+        // The syntax error in g is only thrown once its body is needed.
+        Ast.Method g = source.getMethods().get(1);
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, g::getStatements);
+        Assertions.assertEquals(input.indexOf(';', input.indexOf("print")), ((ParseException) exception.getCause()).getIndex());
+        Assertions.assertFalse(g.hasStatements());
+    }
+
+    @Test
+    void testRecovery() {
+        String input = "LET x = ;\nLET y = 1;\nDEF f(a) DO a = ; IF a DO print(a 1); END RETURN a; END\nDEF g( DO END\nDEF h() DO RETURN ); END\n";
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class,
+                () -> new Parser(new Lexer(input).lexBuffer()).parseSource());
+        Parser parser = new Parser(new Lexer(input).lexBuffer());
+        parser.setRecovering(true);
+        Ast.Source source = parser.parseSource();
+        List<ParseException> diagnostics = parser.getDiagnostics();
+        Assertions.assertEquals(exception.getCause().getMessage(), diagnostics.get(0).getMessage());
+        Assertions.assertEquals(5, diagnostics.size());
+        Assertions.assertEquals(0, diagnostics.get(1).getStackTrace().length);
+        Assertions.assertEquals(Arrays.asList("y"), source.getFields().stream().map(Ast.Field::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(Arrays.asList("f", "h"), source.getMethods().stream().map(Ast.Method::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(new Parser(new Lexer("DEF f(a) DO IF a DO END RETURN a; END").lex()).parseSource().getMethods().get(0),
+                source.getMethods().get(0));
+    }
+
+    @Test
+    void testFlatAst() {
+        String input = "LET x = 1;\nLET y;\nDEF f(a, b) DO LET z = g(a, b.c, 'c', \"s\", 1.5, NIL); IF a DO b.c = z * (a - 2); ELSE RETURN a.f(); END END\n";
+        SymbolTable symbols = new SymbolTable();
+        Ast.Source expected = new Parser(new Lexer(input).lexBuffer(symbols)).parseSource();
+        FlatAst flat = FlatAst.parse(new Parser(new Lexer(input).lexBuffer(symbols)), symbols);
+        Assertions.assertEquals(expected, flat.toAst());
+        Assertions.assertEquals(expected, FlatAst.of(expected, symbols).toAst());
+
+        int method = flat.getChild(flat.getRoot(), flat.getSplit(flat.getRoot()));
+        Assertions.assertEquals(FlatAst.METHOD, flat.getKind(method));
+        Assertions.assertEquals("f", flat.getName(method));
+        Assertions.assertEquals(symbols.find("b"), flat.getParameter(method, 1));
+        int declaration = flat.getChild(method, 0);
+        Assertions.assertEquals(FlatAst.FUNCTION, flat.getKind(flat.getChild(declaration, 0)));
+        Assertions.assertEquals(6, flat.getChildCount(flat.getChild(declaration, 0)));
+    }
+
+    @Test
+    void testFlatAstDepth() {
+        int depth = 1_000_000;
+        Ast.Expr expression = new Ast.Expr.Access(Optional.empty(), "x");
+        for (int i = 0; i < depth; i++) {
+            expression = new Ast.Expr.Binary("+", expression, new Ast.Expr.Access(Optional.empty(), "x"));
+        }
+        Ast.Source source = new Ast.Source(Arrays.asList(new Ast.Field("y", "Integer", Optional.of(expression))), Arrays.asList());
+        FlatAst flat = FlatAst.of(source, new SymbolTable());
+        Assertions.assertEquals(2 * depth + 3, flat.size());
+        Ast.Source converted = flat.toAst();
+        Assertions.assertEquals(source.hashCode(), converted.hashCode());
+        expression = converted.getFields().get(0).getValue().get();
+        for (int i = 0; i < depth; i++) {
+            expression = ((Ast.Expr.Binary) expression).getLeft();
+        }
+        Assertions.assertEquals(new Ast.Expr.Access(Optional.empty(), "x"), expression);
+    }
+
+    @Test
+    void testStructuralHash() {
+        String input = "DEF f(a) DO IF a DO RETURN g(a.b, 1.5); END END\nDEF g() DO RETURN (1 + 2) * 3; END\n";
+        Ast.Source source = new Parser(new Lexer(input).lexBuffer()).parseSource();
+        Ast.Source same = new Parser(new Lexer(input).lexBuffer()).parseSource();
+        Ast.Source changed = new Parser(new Lexer(input.replace("1.5", "1.50")).lexBuffer()).parseSource();
+        Assertions.assertEquals(source.hashCode(), same.hashCode());
+        Assertions.assertNotEquals(source.getMethods().get(0).hashCode(), changed.getMethods().get(0).hashCode());
+        Assertions.assertNotEquals(source, changed);
+
+        Map<Ast.Method, String> methods = new HashMap<>();
+        methods.put(source.getMethods().get(1), "g");
+        Assertions.assertEquals("g", methods.get(changed.getMethods().get(1)));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> source.getMethods().clear());
+    }
+
+    @Test
+    void testStructuralHashDepth() {
+        Ast.Expr expression = new Ast.Expr.Access(Optional.empty(), "x");
+        Ast.Expr same = expression;
+        for (int i = 0; i < 1_000_000; i++) {
+            expression = new Ast.Expr.Binary("+", expression, new Ast.Expr.Access(Optional.empty(), "x"));
+        }
+        for (int i = 0; i < 1_000_000; i++) {
+            same = new Ast.Expr.Binary("+", same, new Ast.Expr.Access(Optional.empty(), "x"));
+        }
+        Assertions.assertEquals(expression.hashCode(), same.hashCode());
+    }
+
+    @Test
+    void testStructuralHashLazy() {
+        String input = "DEF f(a) DO RETURN a; END\n";
+        Parser parser = new Parser(new Lexer(input).lexBuffer());
+        parser.setLazy(true);
+        Ast.Method lazy = parser.parseSource().getMethods().get(0);
+        Ast.Method parsed = new Parser(new Lexer(input).lexBuffer()).parseSource().getMethods().get(0);
+        lazy.toString();
+        Assertions.assertFalse(lazy.hasStatements());
+        // Hashing parses the body, and the hash is that of the method parsed eagerly.
+        Assertions.assertEquals(parsed.hashCode(), lazy.hashCode());
+        Assertions.assertTrue(lazy.hasStatements());
+
+        parser = new Parser(new Lexer(input.replace("RETURN a;", "RETURN 1;")).lexBuffer());
+        parser.setLazy(true);
+        Assertions.assertNotEquals(parsed.hashCode(), parser.parseSource().getMethods().get(0).hashCode());
+    }
+
+    @Test
+    void testSharing() {
+        String input = "DEF f() DO print(1 + (2 * 3)); print(1 + (2 * 3), x + 1, x + 1); END";
+        Parser parser = new Parser(new Lexer(input).lexBuffer());
+        parser.setSharing(true);
+        Ast.Source source = parser.parseSource();
+        Assertions.assertEquals(new Parser(new Lexer(input).lexBuffer()).parseSource(), source);
+
+        List<Ast.Stmt> statements = source.getMethods().get(0).getStatements();
+        List<Ast.Expr> first = ((Ast.Expr.Function) ((Ast.Stmt.Expression) statements.get(0)).getExpression()).getArguments();
+        List<Ast.Expr> second = ((Ast.Expr.Function) ((Ast.Stmt.Expression) statements.get(1)).getExpression()).getArguments();
+        Assertions.assertSame(first.get(0), second.get(0));
+        Assertions.assertSame(((Ast.Expr.Binary) second.get(1)).getRight(), ((Ast.Expr.Binary) second.get(2)).getRight());
+        Assertions.assertNotSame(second.get(1), second.get(2));
+    }
+
+    @Test
+    void testSharingAfterAnalysis() {
+        Parser parser = new Parser(new Lexer("print(1 + 2); print(1 + 2);").lexBuffer());
+        parser.setSharing(true);
+        Ast.Stmt.Expression first = (Ast.Stmt.Expression) parser.parseStatement();
+        new Analyzer(new Scope(null)).visit(first);
+        // The shared expression now has a type, but is still found by its structure.
+        Ast.Stmt.Expression second = (Ast.Stmt.Expression) parser.parseStatement();
+        Assertions.assertSame(((Ast.Expr.Function) first.getExpression()).getArguments().get(0),
+                ((Ast.Expr.Function) second.getExpression()).getArguments().get(0));
+    }
+
+    @Test
+    void testIncrementalParser() {
+        String input = "LET x = 1;\nDEF f() DO RETURN x; END\nDEF g() DO print(x); END\n";
+        IncrementalParser parser = new IncrementalParser(input);
+        Ast.Method g = parser.getSource().getMethods().get(1);
+
+        // Editing f relexes and reparses f only.
+        Ast.Source source = parser.edit(input.indexOf("RETURN x") + 7, 1, "x + 2");
+        Assertions.assertEquals(new Parser(new Lexer(parser.getText()).lex()).parseSource(), source);
+        Assertions.assertSame(g, source.getMethods().get(1));
+
+        // Removing the END of f merges it with g, which is then reparsed too.
+        int end = parser.getText().indexOf("END");
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> parser.edit(end, 3, ""));
+        Assertions.assertTrue(exception.getCause() instanceof ParseException);
+        Assertions.assertSame(source, parser.getSource());
+        Assertions.assertEquals(new Parser(new Lexer(parser.getText()).lex()).parseSource(), parser.edit(end, 3, "END"));
+    }
+
     /**
      * Standard test function. If expected is null, a ParseException is expected
      * to be thrown (not used in the provided tests).